@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.herokuapp.directto.client.EventSubscription.Event;
@@ -59,6 +60,11 @@ public abstract class AbstractArtifactDeployment extends AbstractHerokuBuildStep
                 artifactPaths));
     }
 
+    @Override
+    protected CircuitBreaker.Endpoint getServiceEndpoint() {
+        return CircuitBreaker.Endpoint.DIRECT_TO;
+    }
+
     @Override
     public AbstractArtifactDeploymentDescriptor getDescriptor() {
         return (AbstractArtifactDeploymentDescriptor) super.getDescriptor();
@@ -117,16 +123,28 @@ public abstract class AbstractArtifactDeployment extends AbstractHerokuBuildStep
                             })
                     );
 
-            try {
-                client.verify(deployRequest);
-            } catch (VerificationException e) {
-                for (String err : e.getMessages()) {
+            final List<String> verificationErrors = new ServiceCall<List<String>>() {
+                List<String> call() {
+                    try {
+                        client.verify(deployRequest);
+                        return null;
+                    } catch (VerificationException e) {
+                        return e.getMessages();
+                    }
+                }
+            }.run();
+            if (verificationErrors != null) {
+                for (String err : verificationErrors) {
                     listener.error(err);
                 }
                 return false;
             }
 
-            final Map<String, String> deployResults = client.deploy(deployRequest);
+            final Map<String, String> deployResults = new ServiceCall<Map<String, String>>() {
+                Map<String, String> call() throws IOException, InterruptedException {
+                    return client.deploy(deployRequest);
+                }
+            }.run();
             listener.getLogger().println("Launching... done, " +  deployResults.get("release"));
             listener.getLogger().println(appWebUrl + " deployed to Heroku");
 
@@ -3,6 +3,7 @@ package com.heroku;
 import com.heroku.api.App;
 import com.heroku.api.Heroku;
 import com.heroku.api.HerokuAPI;
+import com.heroku.api.connection.Connection;
 import com.heroku.api.exception.RequestFailedException;
 import hudson.Launcher;
 import hudson.Util;
@@ -16,7 +17,12 @@ import hudson.util.Secret;
 import org.kohsuke.stapler.QueryParameter;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.net.HttpURLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * @author Ryan Brainard
@@ -81,10 +87,22 @@ abstract class AbstractHerokuBuildStep extends Builder {
     }
 
     protected App getOrCreateApp(BuildListener listener, HerokuAPI api) {
+        return getOrCreateApp(listener, api, new MetadataCache.Lookups());
+    }
+
+    /**
+     * @param lookups counts of the build's metadata lookups, to which this one is added
+     */
+    protected App getOrCreateApp(BuildListener listener, final HerokuAPI api, MetadataCache.Lookups lookups) {
+        final MetadataCache metadataCache = HerokuPlugin.get().getMetadataCache();
         App app;
 
         try {
-            app = api.getApp(appName);
+            app = metadataCache.getApp(getEffectiveApiKey(), appName, new MetadataCache.Loader<App>() {
+                public App load() {
+                    return api.getApp(appName);
+                }
+            }, lookups);
         } catch (RequestFailedException appListingException) {
             if (appListingException.getStatusCode() == HttpURLConnection.HTTP_FORBIDDEN) {
                 throw new HerokuJenkinsHandledException("No access to Heroku app '" + appName + "'. Check API key, app name, and ensure you have access.");
@@ -93,6 +111,12 @@ abstract class AbstractHerokuBuildStep extends Builder {
             try {
                 app = api.createApp(new App().named(appName).on(Heroku.Stack.Cedar));
                 listener.getLogger().println("Created new app " + appName);
+                if (app != null && app.getId() != null) {
+                    // any app of this name cached for other keys is one that no longer exists
+                    metadataCache.invalidateApp(appName);
+                    metadataCache.putApp(getEffectiveApiKey(), app);
+                }
+                HerokuPlugin.get().getReleaseIndex().forget(getEffectiveApiKey(), appName);
             } catch (RequestFailedException appCreationException) {
                 if (appCreationException.getStatusCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
                     throw new HerokuJenkinsHandledException("No access to create Heroku app '" + appName + "'. Check API key.");
@@ -113,11 +137,18 @@ abstract class AbstractHerokuBuildStep extends Builder {
     @Override
     public final boolean perform(final AbstractBuild build, final Launcher launcher, final BuildListener listener) throws IOException, InterruptedException {
         listener.getLogger().println("\n=== Starting " + getDescriptor().getDisplayName() + " ===");
+        final ApiClientRegistry apiClients = HerokuPlugin.get().getApiClients();
+        HerokuAPI sharedApi = null;
+        FutureTask<App> app = null;
         try {
-            final HerokuAPI api = hasAppContext ? new HerokuAPI(getEffectiveApiKey()) : null;
-            final App app = hasAppContext ? getOrCreateApp(listener, api) : null;
+            if (hasAppContext) {
+                HerokuPlugin.get().getCircuitBreaker(CircuitBreaker.Endpoint.PLATFORM_API).failFastIfOpen();
+            }
+            sharedApi = hasAppContext ? apiClients.acquire(getEffectiveApiKey()) : null;
+            final HerokuAPI api = sharedApi != null ? createStepApi(build.getFullDisplayName(), listener.getLogger(), sharedApi) : null;
+            app = hasAppContext ? resolveApp(build, listener, api) : null;
             try {
-                final boolean result = perform(build, launcher, listener, api, app);
+                final boolean result = performGuarded(build, launcher, listener, api, app);
                 if (result) {
                     listener.getLogger().println("=== Completed " + getDescriptor().getDisplayName() + " ===");
                 }
@@ -130,9 +161,126 @@ abstract class AbstractHerokuBuildStep extends Builder {
         } catch (HerokuJenkinsHandledException e) {
             listener.error(e.getMessage());
             return false;
+        } finally {
+            if (app != null) {
+                app.cancel(true);
+            }
+            if (sharedApi != null) {
+                apiClients.release(sharedApi);
+            }
+            if (hasAppContext) {
+                listener.getLogger().println(MetadataCache.Lookups.of(build).summary());
+            }
+        }
+    }
+
+    /**
+     * Resolves the app, on its own thread if the step does other work meanwhile
+     */
+    private FutureTask<App> resolveApp(AbstractBuild build, final BuildListener listener, final HerokuAPI api) {
+        final MetadataCache.Lookups lookups = MetadataCache.Lookups.of(build);
+        final FutureTask<App> app = new FutureTask<App>(new Callable<App>() {
+            public App call() {
+                return getOrCreateApp(listener, api, lookups);
+            }
+        });
+
+        if (resolvesAppConcurrently()) {
+            final Thread thread = new Thread(app, "Heroku app resolution for " + build.getFullDisplayName());
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            app.run();
+        }
+        return app;
+    }
+
+    /**
+     * Waits for an app being resolved by {@link #resolveApp}, rethrowing any failure to resolve it
+     */
+    protected static App join(Future<App> app) throws InterruptedException {
+        try {
+            return app.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Performs the step under the circuit breaker of the service it depends on, if any.
+     * Only failed {@link ServiceCall}s count against the breaker, not failures of the step around them.
+     */
+    private boolean performGuarded(AbstractBuild build, Launcher launcher, BuildListener listener, HerokuAPI api, Future<App> app) throws IOException, InterruptedException {
+        final CircuitBreaker.Endpoint endpoint = getServiceEndpoint();
+        if (endpoint == null) {
+            return performResolvingApp(build, launcher, listener, api, app);
+        }
+
+        final CircuitBreaker breaker = HerokuPlugin.get().getCircuitBreaker(endpoint);
+        breaker.acquire();
+        final long start = System.nanoTime();
+        boolean failure = false;
+        try {
+            return performResolvingApp(build, launcher, listener, api, app);
+        } catch (IOException e) {
+            failure = ServiceCallException.isCause(e);
+            throw e;
+        } catch (RuntimeException e) {
+            // platform API errors are recorded by its own breaker
+            failure = ServiceCallException.isCause(e);
+            throw e;
+        } finally {
+            breaker.record(failure, System.nanoTime() - start);
         }
     }
 
+    /**
+     * @param owner build the calls are made for
+     * @return client for this step's calls, over the shared client's connection, with its calls rate limited and guarded by a circuit breaker, and its reads coalesced
+     */
+    static HerokuAPI createStepApi(String owner, PrintStream logger, HerokuAPI sharedApi) {
+        final HerokuPlugin plugin = HerokuPlugin.get();
+        final Connection guarded = CircuitBreakingConnection.wrap(sharedApi.getConnection(), plugin.getCircuitBreaker(CircuitBreaker.Endpoint.PLATFORM_API));
+        final ApiRateLimiter limiter = plugin.getApiRateLimiter(sharedApi);
+        final Connection connection = RateLimitedConnection.wrap(guarded, limiter, owner, logger);
+        return new CoalescingHerokuAPI(connection, sharedApi.getApiKey(), plugin.getApiReads(), plugin.getApiReadPolicy(), limiter, logger);
+    }
+
+    /**
+     * Subclasses doing their main work with a Heroku service other than the platform API should override this,
+     * so the step fails fast while that service is degraded
+     *
+     * @return endpoint family of that service, or null
+     */
+    protected CircuitBreaker.Endpoint getServiceEndpoint() {
+        return null;
+    }
+
+    /**
+     * Subclasses with work that does not need the app, such as scanning the workspace, should return true here
+     * and override {@link #performResolvingApp} to do that work while the app is looked up, or created, on another thread
+     *
+     * @return true to resolve the app concurrently with {@link #performResolvingApp}
+     */
+    protected boolean resolvesAppConcurrently() {
+        return false;
+    }
+
+    /**
+     * Called with the app still being resolved if {@link #resolvesAppConcurrently()}, already resolved otherwise.
+     * By default waits for the app and delegates to {@link #perform(AbstractBuild, Launcher, BuildListener, HerokuAPI, App)}.
+     *
+     * @param app the app, or null for steps without app context; use {@link #join(Future)} to wait for it
+     */
+    protected boolean performResolvingApp(AbstractBuild build, Launcher launcher, BuildListener listener, HerokuAPI api, Future<App> app) throws IOException, InterruptedException {
+        return perform(build, launcher, listener, api, app != null ? join(app) : null);
+    }
+
     /**
      * Subclasses should override this to get access to the Heroku API with the context of an app
      */
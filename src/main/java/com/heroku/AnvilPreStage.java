@@ -0,0 +1,147 @@
+package com.heroku;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.remoting.VirtualChannel;
+import hudson.tasks.BuildWrapper;
+import hudson.tasks.BuildWrapperDescriptor;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+import static com.heroku.HerokuPlugin.Feature.ANVIL;
+import static com.heroku.HerokuPlugin.Feature.CISAURUS;
+
+/**
+ * Hashes workspace files in the background while the build runs,
+ * so that a later {@link AnvilPush} of the same directory finds most of their digests already computed.
+ *
+ * @author Ryan Brainard
+ */
+public class AnvilPreStage extends BuildWrapper {
+
+    private static final int DEFAULT_POLL_INTERVAL = 10;
+
+    private final String baseDir;
+    private final String globIncludes;
+    private final String globExcludes;
+    private final int pollInterval;
+
+    @DataBoundConstructor
+    public AnvilPreStage(String baseDir, String globIncludes, String globExcludes, int pollInterval) {
+        this.baseDir = baseDir;
+        this.globIncludes = globIncludes;
+        this.globExcludes = globExcludes;
+        this.pollInterval = pollInterval;
+    }
+
+    public String getBaseDir() {
+        return baseDir;
+    }
+
+    public String getGlobIncludes() {
+        return globIncludes;
+    }
+
+    public String getGlobExcludes() {
+        return globExcludes;
+    }
+
+    public int getPollInterval() {
+        return pollInterval;
+    }
+
+    @Override
+    public Environment setUp(AbstractBuild build, Launcher launcher, final BuildListener listener) throws IOException, InterruptedException {
+        final FilePath dir = build.getWorkspace().child(baseDir);
+        final String indexPath = DigestIndex.indexPath(build.getWorkspace(), baseDir);
+        dir.act(new StartCallable(listener, globIncludes, globExcludes, pollInterval > 0 ? pollInterval : DEFAULT_POLL_INTERVAL, indexPath));
+
+        return new Environment() {
+            @Override
+            public boolean tearDown(AbstractBuild build, BuildListener listener) throws IOException, InterruptedException {
+                dir.act(new StopCallable(listener));
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public AnvilPreStageDescriptor getDescriptor() {
+        return (AnvilPreStageDescriptor) super.getDescriptor();
+    }
+
+    @Extension
+    public static class AnvilPreStageDescriptor extends BuildWrapperDescriptor {
+
+        public String getDisplayName() {
+            return "Heroku: Pre-stage push file digests during the build";
+        }
+
+        @Override
+        public boolean isApplicable(AbstractProject<?, ?> item) {
+            return HerokuPlugin.get().hasFeatures(ANVIL, CISAURUS);
+        }
+
+        public FormValidation doCheckBaseDir(@AncestorInPath AbstractProject project, @QueryParameter String value) throws IOException {
+            return FilePath.validateFileMask(project.getSomeWorkspace(), value);
+        }
+
+        public FormValidation doCheckPollInterval(@AncestorInPath AbstractProject project, @QueryParameter String value) throws IOException {
+            return FormValidation.validatePositiveInteger(value);
+        }
+    }
+
+    /**
+     * Starts a {@link PreStager} on the node holding the workspace.
+     */
+    static class StartCallable implements FilePath.FileCallable<Void>, Serializable {
+        private final BuildListener listener;
+        private final String globIncludes;
+        private final String globExcludes;
+        private final int pollInterval;
+        private final String indexPath;
+
+        StartCallable(BuildListener listener, String globIncludes, String globExcludes, int pollInterval, String indexPath) {
+            this.listener = listener;
+            this.globIncludes = globIncludes;
+            this.globExcludes = globExcludes;
+            this.pollInterval = pollInterval;
+            this.indexPath = indexPath;
+        }
+
+        public Void invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            PreStager.start(new PreStager(dir, new File(indexPath), new PruningGlobScanner(globIncludes, globExcludes), pollInterval * 1000L, listener.getLogger()));
+            listener.getLogger().println("Pre-staging file digests in " + dir + " every " + pollInterval + "s");
+            return null;
+        }
+    }
+
+    /**
+     * Stops the {@link PreStager} for the workspace, if the push step has not already done so.
+     */
+    static class StopCallable implements FilePath.FileCallable<Void>, Serializable {
+        private final BuildListener listener;
+
+        StopCallable(BuildListener listener) {
+            this.listener = listener;
+        }
+
+        public Void invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            final PreStager stager = PreStager.stop(dir);
+            if (stager != null) {
+                listener.getLogger().println(stager.summary());
+            }
+            return null;
+        }
+    }
+}
@@ -2,14 +2,13 @@ package com.heroku;
 
 import com.heroku.api.App;
 import com.heroku.api.HerokuAPI;
+import com.heroku.api.User;
 import com.heroku.janvil.*;
 import hudson.*;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.remoting.VirtualChannel;
-import hudson.util.DirScanner;
-import hudson.util.FileVisitor;
 import hudson.util.FormValidation;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -21,8 +20,13 @@ import java.io.Serializable;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static com.heroku.HerokuPlugin.Feature.ANVIL;
 import static com.heroku.HerokuPlugin.Feature.CISAURUS;
@@ -39,9 +43,10 @@ public class AnvilPush extends AbstractHerokuBuildStep {
     private final String globIncludes;
     private final String globExcludes;
     private final boolean useCache;
+    private final int hashParallelism;
 
     @DataBoundConstructor
-    public AnvilPush(String apiKey, String appName, String buildpackUrl, String buildEnv, String releaseDesc, String baseDir, String globIncludes, String globExcludes, boolean useCache) {
+    public AnvilPush(String apiKey, String appName, String buildpackUrl, String buildEnv, String releaseDesc, String baseDir, String globIncludes, String globExcludes, boolean useCache, int hashParallelism) {
         super(apiKey, appName);
         this.buildpackUrl = buildpackUrl;
         this.buildEnv = buildEnv;
@@ -50,6 +55,7 @@ public class AnvilPush extends AbstractHerokuBuildStep {
         this.globIncludes = globIncludes;
         this.globExcludes = globExcludes;
         this.useCache = useCache;
+        this.hashParallelism = hashParallelism;
     }
 
     // Overriding and delegating to parent because Jelly only looks at concrete class when rendering views
@@ -92,32 +98,112 @@ public class AnvilPush extends AbstractHerokuBuildStep {
         return useCache;
     }
 
+    public int getHashParallelism() {
+        return hashParallelism;
+    }
+
     @Override
     public boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener, HerokuAPI api, App app) throws IOException, InterruptedException {
         return build.getWorkspace().child(baseDir).act(createRemoteCallable(build, listener, api, app));
     }
 
+    @Override
+    protected boolean resolvesAppConcurrently() {
+        return true;
+    }
+
+    /**
+     * Scans and hashes the workspace on the agent while the app and user are resolved here,
+     * joining both before the push, whose diff needs the scan and whose build needs the app.
+     * If the push does not take the scanned manifest, such as when the build is aborted, the manifest is dropped.
+     */
+    @Override
+    protected boolean performResolvingApp(AbstractBuild build, Launcher launcher, BuildListener listener, HerokuAPI api, Future<App> app) throws IOException, InterruptedException {
+        final FilePath dir = build.getWorkspace().child(baseDir);
+        final String scanId = UUID.randomUUID().toString();
+        final Future<Integer> scan = dir.actAsync(new ScanCallable(scanId, listener, globIncludes, globExcludes, hashParallelism, indexPath(build)));
+        boolean pushed = false;
+        try {
+            final String userEmail = getUserEmail(build, api);
+            final App resolvedApp = join(app);
+            scan.get();
+            final RemoteCallable push = createRemoteCallable(build, listener, resolvedApp, userEmail).withScan(scanId);
+            final boolean result = dir.act(push);
+            pushed = true;
+            return result;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Workspace scan failed", e.getCause());
+        } finally {
+            if (!pushed) {
+                scan.cancel(true);
+                dropScan(dir, scanId);
+            }
+        }
+    }
+
+    private static void dropScan(FilePath dir, String scanId) {
+        // still drop the scan if the build was aborted, and leave the build aborted
+        boolean interrupted = Thread.interrupted();
+        try {
+            dir.act(new DropScanCallable(scanId));
+        } catch (IOException e) {
+            // the node is gone, or its scans expire anyway
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    protected CircuitBreaker.Endpoint getServiceEndpoint() {
+        return CircuitBreaker.Endpoint.ANVIL;
+    }
+
     /**
      * Bridge between perform() instance method and RemoteCallable serialization, static class.
      * Resolves all non-serializable instance data to create RemoteCallable
      */
     RemoteCallable createRemoteCallable(AbstractBuild build, BuildListener listener, HerokuAPI api, App app) throws IOException, InterruptedException {
+        return createRemoteCallable(build, listener, app, getUserEmail(build, api));
+    }
+
+    private RemoteCallable createRemoteCallable(AbstractBuild build, BuildListener listener, App app, String userEmail) throws IOException, InterruptedException {
         return new RemoteCallable(
                 build.getEnvironment(listener),
                 listener,
                 app,
                 getEffectiveApiKey(),
                 new JenkinsUserAgentValueProvider().getLocalUserAgent(),
-                api.getUserInfo().getEmail(),
+                userEmail,
                 buildpackUrl,
                 globIncludes,
                 globExcludes,
                 buildEnv,
                 releaseDesc,
-                useCache
+                useCache,
+                hashParallelism,
+                indexPath(build)
         );
     }
 
+    private String indexPath(AbstractBuild build) throws IOException {
+        return DigestIndex.indexPath(build.getWorkspace(), baseDir);
+    }
+
+    private String getUserEmail(AbstractBuild build, final HerokuAPI api) {
+        return HerokuPlugin.get().getMetadataCache().getUserInfo(getEffectiveApiKey(), new MetadataCache.Loader<User>() {
+            public User load() {
+                return api.getUserInfo();
+            }
+        }, MetadataCache.Lookups.of(build)).getEmail();
+    }
+
     @Override
     public AnvilPushDescriptor getDescriptor() {
         return (AnvilPushDescriptor) super.getDescriptor();
@@ -171,6 +257,113 @@ public class AnvilPush extends AbstractHerokuBuildStep {
         public FormValidation doCheckGlobIncludes(@AncestorInPath AbstractProject project, @QueryParameter String value) throws IOException {
             return FilePath.validateFileMask(project.getSomeWorkspace(), value);
         }
+
+        public FormValidation doCheckHashParallelism(@AncestorInPath AbstractProject project, @QueryParameter String value) throws IOException {
+            return ManifestBuilder.validateParallelism(value);
+        }
+    }
+
+    /**
+     * Manifests scanned ahead of a push on this node, by scan id, until the push takes them or the step drops them.
+     * Dropped scans are kept without their manifest, so a scan still running when dropped does not keep its manifest.
+     * Entries left behind, such as when the node could not be reached to drop a scan, expire after a while.
+     */
+    private static final Map<String, ScannedManifest> scannedManifests = new HashMap<String, ScannedManifest>();
+    private static final long SCANNED_MANIFEST_TTL_MILLIS = 60 * 60 * 1000L;
+
+    private static final class ScannedManifest {
+        final CompactManifest manifest;
+        final long scannedAt = System.currentTimeMillis();
+
+        /**
+         * @param manifest null if the scan was dropped
+         */
+        ScannedManifest(CompactManifest manifest) {
+            this.manifest = manifest;
+        }
+    }
+
+    static void putScannedManifest(String scanId, CompactManifest manifest) {
+        synchronized (scannedManifests) {
+            final ScannedManifest dropped = scannedManifests.get(scanId);
+            if (dropped == null || dropped.manifest != null) {
+                putScan(scanId, new ScannedManifest(manifest));
+            }
+        }
+    }
+
+    static void dropScannedManifest(String scanId) {
+        synchronized (scannedManifests) {
+            putScan(scanId, new ScannedManifest(null));
+        }
+    }
+
+    private static void putScan(String scanId, ScannedManifest scanned) {
+        final long now = System.currentTimeMillis();
+        for (Iterator<ScannedManifest> i = scannedManifests.values().iterator(); i.hasNext(); ) {
+            if (now - i.next().scannedAt > SCANNED_MANIFEST_TTL_MILLIS) {
+                i.remove();
+            }
+        }
+        scannedManifests.put(scanId, scanned);
+    }
+
+    static CompactManifest takeScannedManifest(String scanId) {
+        synchronized (scannedManifests) {
+            final ScannedManifest scanned = scannedManifests.remove(scanId);
+            return scanned != null ? scanned.manifest : null;
+        }
+    }
+
+    /**
+     * Scans and hashes the directory on the agent ahead of the push, which takes the manifest by scan id,
+     * so the manifest never crosses the channel.
+     */
+    static class ScanCallable implements FilePath.FileCallable<Integer>, Serializable {
+        private final String scanId;
+        private final BuildListener listener;
+        private final String globIncludes;
+        private final String globExcludes;
+        private final int hashParallelism;
+        private final String indexPath;
+
+        ScanCallable(String scanId, BuildListener listener, String globIncludes, String globExcludes, int hashParallelism, String indexPath) {
+            this.scanId = scanId;
+            this.listener = listener;
+            this.globIncludes = globIncludes;
+            this.globExcludes = globExcludes;
+            this.hashParallelism = hashParallelism;
+            this.indexPath = indexPath;
+        }
+
+        /**
+         * @return number of files scanned
+         */
+        public Integer invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            final PreStager stager = PreStager.stop(dir);
+            if (stager != null) {
+                listener.getLogger().println(stager.summary());
+            }
+            final CompactManifest manifest = new ManifestBuilder(dir, new File(indexPath), hashParallelism, listener.getLogger()).build(new PruningGlobScanner(globIncludes, globExcludes));
+            putScannedManifest(scanId, manifest);
+            return manifest.size();
+        }
+    }
+
+    /**
+     * Drops a manifest scanned ahead of a push that did not take it.
+     */
+    static class DropScanCallable implements FilePath.FileCallable<Void>, Serializable {
+        private final String scanId;
+
+        DropScanCallable(String scanId) {
+            this.scanId = scanId;
+        }
+
+        public Void invoke(File dir, VirtualChannel channel) {
+            dropScannedManifest(scanId);
+            return null;
+        }
     }
 
     /**
@@ -190,9 +383,13 @@ public class AnvilPush extends AbstractHerokuBuildStep {
         private String buildEnv;
         private String releaseDesc;
         private boolean useCache;
+        private int hashParallelism;
+        private String indexPath;
+        private String scanId;
 
         RemoteCallable(EnvVars jenkinsEnv, BuildListener listener, App app, String effectiveApiKey, String userAgent, String userEmail,
-                       String buildpackUrl, String globIncludes, String globExcludes, String buildEnv, String releaseDesc, boolean useCache) {
+                       String buildpackUrl, String globIncludes, String globExcludes, String buildEnv, String releaseDesc, boolean useCache, int hashParallelism,
+                       String indexPath) {
             this.jenkinsEnv = jenkinsEnv;
             this.listener = listener;
             this.app = app;
@@ -205,35 +402,64 @@ public class AnvilPush extends AbstractHerokuBuildStep {
             this.buildEnv = buildEnv;
             this.releaseDesc = releaseDesc;
             this.useCache = useCache;
+            this.hashParallelism = hashParallelism;
+            this.indexPath = indexPath;
         }
 
         public Boolean invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
             final Janvil janvil = new Janvil(config());
+            CompactManifest manifest = scanId != null ? takeScannedManifest(scanId) : null;
+            if (manifest == null) {
+                stopPreStaging(dir);
+                manifest = manifest(dir);
+            }
 
+            final Manifest janvilManifest = manifest.toManifest(dir);
+            final Map<String, String> buildEnvMap = resolveBuildEnv();
             final String slugUrl;
             try {
-                slugUrl = janvil.build(manifest(dir), resolveBuildEnv(), buildpackUrl);
+                slugUrl = new ServiceCall<String>() {
+                    String call() throws IOException, InterruptedException {
+                        return janvil.build(janvilManifest, buildEnvMap, buildpackUrl);
+                    }
+                }.run();
             } catch (JanvilBuildException e) {
                 listener.error("A build error occurred: " + e.getExitStatus());
                 return false;
             }
 
-            janvil.release(app.getName(), slugUrl, resolveReleaseDesc(), resolveCommitHead());
+            final String releaseDesc = resolveReleaseDesc();
+            final String commitHead = resolveCommitHead();
+            new ServiceCall<Void>() {
+                Void call() throws IOException, InterruptedException {
+                    janvil.release(app.getName(), slugUrl, releaseDesc, commitHead);
+                    return null;
+                }
+            }.run();
 
             return true;
         }
 
-        Manifest manifest(File dir) throws IOException {
-            final Manifest manifest = new Manifest(dir);
-            new DirScanner.Glob(globIncludes, globExcludes).scan(dir, new FileVisitor() {
-                @Override
-                public void visit(File f, String relativePath) throws IOException {
-                    if (f.isFile()) {
-                        manifest.add(f);
-                    }
-                }
-            });
-            return manifest;
+        /**
+         * @param scanId id of a {@link ScanCallable} run ahead of this push, whose manifest is used instead of scanning again
+         */
+        RemoteCallable withScan(String scanId) {
+            this.scanId = scanId;
+            return this;
+        }
+
+        /**
+         * Stops any {@link AnvilPreStage} hashing of this directory before it is scanned, reporting what they staged.
+         */
+        void stopPreStaging(File dir) throws IOException, InterruptedException {
+            final PreStager stager = PreStager.stop(dir);
+            if (stager != null) {
+                listener.getLogger().println(stager.summary());
+            }
+        }
+
+        CompactManifest manifest(File dir) throws IOException, InterruptedException {
+            return new ManifestBuilder(dir, new File(indexPath), hashParallelism, listener.getLogger()).build(new PruningGlobScanner(globIncludes, globExcludes));
         }
 
         Map<String, String> resolveBuildEnv() throws IOException, InterruptedException {
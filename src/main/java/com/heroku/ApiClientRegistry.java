@@ -0,0 +1,183 @@
+package com.heroku;
+
+import com.heroku.api.HerokuAPI;
+import com.heroku.api.connection.Connection;
+import com.heroku.api.connection.ConnectionFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heroku API clients shared by build steps and concurrent builds, one per API key.
+ * <p/>
+ * Each client keeps its own connection, and with it the connection's pool of keep-alive HTTP connections,
+ * so consecutive steps using the same key skip new TLS handshakes. Steps lease a client with {@link #acquire(String)}
+ * and return it with {@link #release(HerokuAPI)}. Clients not leased for longer than the idle timeout are closed,
+ * as are the least recently used idle clients beyond the maximum number of clients.
+ * A client whose key is retired, or which is evicted while leased, is closed when its last lease is returned.
+ * <p/>
+ * Each client has the {@link ApiRateLimiter} scheduling the calls made with its key, which goes with the client
+ * when it is evicted or retired, so limiters are only kept for keys in use.
+ *
+ * @author Ryan Brainard
+ */
+final class ApiClientRegistry {
+
+    /**
+     * Opens connections for new clients.
+     */
+    interface Connector {
+        Connection open();
+    }
+
+    static final Connector DEFAULT_CONNECTOR = new Connector() {
+        public Connection open() {
+            return ConnectionFactory.get();
+        }
+    };
+
+    private final int maxClients;
+    private final long idleTimeoutNanos;
+    private final Connector connector;
+    private int callsPerHour;
+
+    // access ordered, so iteration starts from the least recently used client
+    private final Map<String, Client> clients = new LinkedHashMap<String, Client>(16, 0.75f, true);
+    private final List<Client> retired = new ArrayList<Client>();
+
+    ApiClientRegistry(int maxClients, long idleTimeoutMillis, Connector connector) {
+        this.maxClients = maxClients;
+        this.idleTimeoutNanos = idleTimeoutMillis * 1000000L;
+        this.connector = connector;
+    }
+
+    synchronized HerokuAPI acquire(String apiKey) {
+        evict(System.nanoTime());
+
+        Client client = clients.get(apiKey);
+        if (client == null) {
+            final Connection connection = connector.open();
+            client = new Client(new HerokuAPI(connection, apiKey), connection, new ApiRateLimiter(callsPerHour));
+            clients.put(apiKey, client);
+        }
+        client.leases++;
+        return client.api;
+    }
+
+    synchronized void release(HerokuAPI api) {
+        final long now = System.nanoTime();
+        for (Client client : clients.values()) {
+            if (client.api == api) {
+                client.leases--;
+                client.lastReleased = now;
+                evict(now);
+                return;
+            }
+        }
+
+        for (Iterator<Client> i = retired.iterator(); i.hasNext(); ) {
+            final Client client = i.next();
+            if (client.api == api && --client.leases == 0) {
+                client.close();
+                i.remove();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param api client leased from this registry
+     * @return schedules the calls of all builds using the client's key
+     */
+    synchronized ApiRateLimiter getRateLimiter(HerokuAPI api) {
+        for (Client client : clients.values()) {
+            if (client.api == api) {
+                return client.limiter;
+            }
+        }
+        for (Client client : retired) {
+            if (client.api == api) {
+                return client.limiter;
+            }
+        }
+        throw new IllegalArgumentException("Client not leased from this registry");
+    }
+
+    /**
+     * Sets the rate of the limiters of current and future clients.
+     */
+    synchronized void setRateLimit(int callsPerHour) {
+        this.callsPerHour = callsPerHour;
+        for (Client client : clients.values()) {
+            client.limiter.setRate(callsPerHour);
+        }
+        for (Client client : retired) {
+            client.limiter.setRate(callsPerHour);
+        }
+    }
+
+    /**
+     * Stops sharing the client for a key, such as when the key is changed, closing it once it is no longer leased.
+     */
+    synchronized void retire(String apiKey) {
+        final Client client = clients.remove(apiKey);
+        if (client != null) {
+            retireOrClose(client);
+        }
+    }
+
+    /**
+     * Closes every client not leased, and every other client when its last lease is returned.
+     */
+    synchronized void close() {
+        for (Client client : clients.values()) {
+            retireOrClose(client);
+        }
+        clients.clear();
+    }
+
+    synchronized int size() {
+        return clients.size();
+    }
+
+    private void evict(long now) {
+        int excess = clients.size() - maxClients;
+        for (Iterator<Client> i = clients.values().iterator(); i.hasNext(); ) {
+            final Client client = i.next();
+            if (client.leases == 0 && (excess > 0 || now - client.lastReleased > idleTimeoutNanos)) {
+                client.close();
+                i.remove();
+                excess--;
+            }
+        }
+    }
+
+    private void retireOrClose(Client client) {
+        if (client.leases == 0) {
+            client.close();
+        } else {
+            retired.add(client);
+        }
+    }
+
+    private static final class Client {
+        final HerokuAPI api;
+        final Connection connection;
+        final ApiRateLimiter limiter;
+        int leases;
+        long lastReleased = System.nanoTime();
+
+        Client(HerokuAPI api, Connection connection, ApiRateLimiter limiter) {
+            this.api = api;
+            this.connection = connection;
+            this.limiter = limiter;
+        }
+
+        void close() {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.heroku;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Token bucket scheduling the Heroku API calls made with one API key, shared by all builds using that key.
+ * <p/>
+ * Calls wait for a token instead of running into the account's rate limit. Waiting calls are served round robin
+ * across owners, usually builds, and in arrival order within an owner, so one build making many calls does not
+ * starve the others. The bucket holds at most a minute of tokens.
+ * When the API answers that the limit was reached anyway, such as when other clients share the account,
+ * the rate is halved, and it is then raised step by step with each successful call until back at the configured rate.
+ *
+ * @author Ryan Brainard
+ */
+final class ApiRateLimiter {
+
+    private static final double MIN_RATE_FRACTION = 1.0 / 16;
+    private static final double RECOVERY_FRACTION = 1.0 / 32;
+
+    private double configuredPerSecond;
+    private double perSecond;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    // owners with waiting calls, in the order they are served next
+    private final Map<String, LinkedList<Object>> waiting = new LinkedHashMap<String, LinkedList<Object>>();
+
+    /**
+     * @param callsPerHour calls allowed per hour, or 0 for no limit
+     */
+    ApiRateLimiter(int callsPerHour) {
+        setRate(callsPerHour);
+        this.tokens = burst();
+    }
+
+    synchronized void setRate(int callsPerHour) {
+        refill();
+        this.configuredPerSecond = Math.max(0, callsPerHour) / 3600.0;
+        this.perSecond = configuredPerSecond;
+        this.tokens = Math.min(tokens, burst());
+        notifyAll();
+    }
+
+    /**
+     * @return calls per hour currently allowed, after any adaptation to throttling
+     */
+    synchronized int getCurrentRate() {
+        return (int) Math.round(perSecond * 3600);
+    }
+
+    synchronized boolean isLimited() {
+        return configuredPerSecond > 0;
+    }
+
+    /**
+     * @return number of calls waiting for their turn
+     */
+    synchronized int getQueued() {
+        int queued = 0;
+        for (LinkedList<Object> queue : waiting.values()) {
+            queued += queue.size();
+        }
+        return queued;
+    }
+
+    /**
+     * Blocks until a call may be made on behalf of the given owner.
+     *
+     * @return nanoseconds waited
+     */
+    long acquire(String owner) throws InterruptedException {
+        final long start = System.nanoTime();
+        final Object ticket = new Object();
+        synchronized (this) {
+            LinkedList<Object> queue = waiting.get(owner);
+            if (queue == null) {
+                queue = new LinkedList<Object>();
+                waiting.put(owner, queue);
+            }
+            queue.add(ticket);
+
+            try {
+                while (perSecond > 0) {
+                    refill();
+                    final boolean turn = waiting.keySet().iterator().next().equals(owner) && waiting.get(owner).getFirst() == ticket;
+                    if (turn && tokens >= 1) {
+                        tokens -= 1;
+                        break;
+                    }
+
+                    if (turn) {
+                        final long waitNanos = (long) Math.ceil((1 - tokens) * 1e9 / perSecond);
+                        wait(Math.max(1, waitNanos / 1000000));
+                    } else {
+                        wait();
+                    }
+                }
+            } finally {
+                remove(owner, ticket);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Records that the API rejected a call for exceeding the rate limit.
+     */
+    synchronized void throttled() {
+        if (configuredPerSecond <= 0) {
+            return;
+        }
+        refill();
+        perSecond = Math.max(configuredPerSecond * MIN_RATE_FRACTION, perSecond / 2);
+        tokens = Math.min(tokens, 0);
+    }
+
+    /**
+     * Records that a call went through.
+     */
+    synchronized void succeeded() {
+        if (perSecond < configuredPerSecond) {
+            refill();
+            perSecond = Math.min(configuredPerSecond, perSecond + configuredPerSecond * RECOVERY_FRACTION);
+        }
+    }
+
+    /**
+     * Removes a ticket that was served or gave up waiting, moving its owner to the back of the rotation.
+     */
+    private void remove(String owner, Object ticket) {
+        final LinkedList<Object> queue = waiting.remove(owner);
+        queue.remove(ticket);
+        if (!queue.isEmpty()) {
+            waiting.put(owner, queue);
+        }
+        notifyAll();
+    }
+
+    private double burst() {
+        return Math.max(1, configuredPerSecond * 60);
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        tokens = Math.min(burst(), tokens + (now - lastRefill) * perSecond / 1e9);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,261 @@
+package com.heroku;
+
+import com.heroku.api.exception.RequestFailedException;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries and hedges Heroku API reads, which are safe to repeat. Never to be used for calls that change anything.
+ * <p/>
+ * A read still unanswered after the configured percentile of recent latencies for the same kind of read
+ * is sent a second time, and whichever answer arrives first is used. Reads failing with a server error
+ * are retried after an exponentially growing, randomly jittered pause.
+ * <p/>
+ * Latencies and hedge delays only count the time the API takes to answer, not time spent waiting for the rate limit,
+ * and reads are not hedged while requests are queueing for the rate limit, as that would only add to the queue.
+ *
+ * @author Ryan Brainard
+ */
+final class ApiReadPolicy {
+
+    private static final int LATENCY_SAMPLES = 100;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final long MIN_HEDGE_DELAY_MILLIS = 50;
+    private static final long BASE_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 10000;
+
+    private final Map<String, Latencies> latencies = new HashMap<String, Latencies>();
+    private final Random random = new Random();
+    private int maxRetries;
+    private int hedgePercentile;
+    private ExecutorService executor;
+
+    ApiReadPolicy(int maxRetries, int hedgePercentile) {
+        configure(maxRetries, hedgePercentile);
+    }
+
+    /**
+     * @param maxRetries      times a read failing with a server error is retried, or 0 for none
+     * @param hedgePercentile percentile of recent latencies after which a read is sent again, or 0 for no hedging
+     */
+    synchronized void configure(int maxRetries, int hedgePercentile) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.hedgePercentile = Math.max(0, Math.min(99, hedgePercentile));
+    }
+
+    synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @param operation kind of read, whose latencies are tracked together
+     * @param limiter   rate limiting the read's requests, or null if not limited
+     */
+    <T> T read(String operation, SingleFlight.Call<T> call, ApiRateLimiter limiter, PrintStream logger) {
+        final int retries;
+        synchronized (this) {
+            retries = maxRetries;
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return hedged(operation, call, limiter, logger);
+            } catch (RequestFailedException e) {
+                if (attempt >= retries || e.getStatusCode() < 500 || e.getStatusCode() > 599) {
+                    throw e;
+                }
+                final long backoff = backoffMillis(attempt);
+                log(logger, "Heroku API " + operation + " failed with " + e.getStatusCode() + ", retrying in " + backoff + " ms ...");
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new HerokuJenkinsHandledException("Interrupted while retrying Heroku API " + operation);
+                }
+            }
+        }
+    }
+
+    /**
+     * Full jitter: a random pause up to an exponentially growing cap, so retries from concurrent builds spread out.
+     */
+    synchronized long backoffMillis(int attempt) {
+        final long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return 1 + (long) (random.nextDouble() * cap);
+    }
+
+    /**
+     * @return milliseconds after which a read should be sent again, or -1 if not hedging it
+     */
+    synchronized long hedgeDelayMillis(String operation) {
+        final Latencies recent = latencies.get(operation);
+        if (hedgePercentile == 0 || recent == null) {
+            return -1;
+        }
+        final long percentile = recent.percentile(hedgePercentile);
+        return percentile < 0 ? -1 : Math.max(MIN_HEDGE_DELAY_MILLIS, percentile);
+    }
+
+    synchronized void recordLatency(String operation, long millis) {
+        Latencies recent = latencies.get(operation);
+        if (recent == null) {
+            recent = new Latencies();
+            latencies.put(operation, recent);
+        }
+        recent.add(millis);
+    }
+
+    private <T> T hedged(String operation, SingleFlight.Call<T> call, ApiRateLimiter limiter, PrintStream logger) {
+        final long hedgeDelay = hedgeDelayMillis(operation);
+        if (hedgeDelay < 0 || queueing(limiter)) {
+            return new Attempt<T>(operation, call).call();
+        }
+
+        final CompletionService<T> completion = new ExecutorCompletionService<T>(executor());
+        final Attempt<T> firstAttempt = new Attempt<T>(operation, call);
+        final long start = System.nanoTime();
+        final Future<T> first = completion.submit(firstAttempt);
+        Future<T> second = null;
+        try {
+            Future<T> done = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            while (done == null) {
+                if (queueing(limiter)) {
+                    // the first read may be waiting its turn, and a second one would wait behind it
+                    done = completion.take();
+                    break;
+                }
+
+                // the delay counts from when the first read got its turn
+                final long remaining = hedgeDelay * 1000000 + firstAttempt.waited.get() - (System.nanoTime() - start);
+                if (remaining <= 0) {
+                    log(logger, "Heroku API " + operation + " slower than " + hedgeDelay + " ms, sending it again ...");
+                    second = completion.submit(new Attempt<T>(operation, call));
+                    done = completion.take();
+                    break;
+                }
+                done = completion.poll(remaining, TimeUnit.NANOSECONDS);
+            }
+
+            try {
+                return done.get();
+            } catch (ExecutionException e) {
+                if (second == null) {
+                    throw unwrap(e);
+                }
+                // one of the two failed; the other may still succeed
+                return completion.take().get();
+            }
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HerokuJenkinsHandledException("Interrupted while waiting for Heroku API " + operation);
+        } finally {
+            first.cancel(true);
+            if (second != null) {
+                second.cancel(true);
+            }
+        }
+    }
+
+    private static boolean queueing(ApiRateLimiter limiter) {
+        return limiter != null && limiter.getQueued() > 0;
+    }
+
+    /**
+     * One read, recording its latency without the time its requests waited for the rate limit.
+     */
+    private final class Attempt<T> implements Callable<T> {
+        final AtomicLong waited = new AtomicLong();
+        private final String operation;
+        private final SingleFlight.Call<T> call;
+
+        Attempt(String operation, SingleFlight.Call<T> call) {
+            this.operation = operation;
+            this.call = call;
+        }
+
+        public T call() {
+            RateLimitedConnection.countWaits(waited);
+            try {
+                final long start = System.nanoTime();
+                final T result = call.call();
+                recordLatency(operation, Math.max(0, System.nanoTime() - start - waited.get()) / 1000000);
+                return result;
+            } finally {
+                RateLimitedConnection.stopCountingWaits();
+            }
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            final AtomicInteger threads = new AtomicInteger();
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Heroku API reader " + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
+        } else if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+        }
+        return new RuntimeException(e.getCause());
+    }
+
+    private static void log(PrintStream logger, String message) {
+        if (logger != null) {
+            logger.println(message);
+        }
+    }
+
+    /**
+     * Latencies of the most recent reads of one kind.
+     */
+    private static final class Latencies {
+        private final long[] millis = new long[LATENCY_SAMPLES];
+        private int next;
+        private int samples;
+
+        void add(long latency) {
+            millis[next] = latency;
+            next = (next + 1) % LATENCY_SAMPLES;
+            samples = Math.min(samples + 1, LATENCY_SAMPLES);
+        }
+
+        long percentile(int percentile) {
+            if (samples < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            final long[] sorted = Arrays.copyOf(millis, samples);
+            Arrays.sort(sorted);
+            return sorted[Math.min(samples - 1, samples * percentile / 100)];
+        }
+    }
+}
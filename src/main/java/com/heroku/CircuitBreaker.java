@@ -0,0 +1,183 @@
+package com.heroku;
+
+/**
+ * Stops calls to a Heroku service that is failing or too slow, so that build steps fail fast instead of
+ * tying up executors in calls that are unlikely to succeed.
+ * <p/>
+ * While closed, the outcomes of the most recent calls are kept. Once enough are known and the share of failed
+ * or slow calls reaches the threshold, the breaker opens and rejects every call. After the open period, it lets
+ * a single probe call through: if the probe succeeds, the breaker closes again, otherwise it stays open for another period.
+ *
+ * @author Ryan Brainard
+ */
+final class CircuitBreaker {
+
+    /**
+     * Families of endpoints, each with its own breaker.
+     */
+    enum Endpoint {
+        PLATFORM_API("Heroku API"),
+        ANVIL("Anvil build service"),
+        DIRECT_TO("Direct-to deploy service");
+
+        final String displayName;
+
+        Endpoint(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final int WINDOW = 20;
+    private static final int MIN_CALLS = 10;
+
+    private final String name;
+    private final int failurePercentThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+
+    private final boolean[] failed = new boolean[WINDOW];
+    private int next;
+    private int calls;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probing;
+
+    /**
+     * @param failurePercentThreshold percentage of failed or slow recent calls at which the breaker opens
+     * @param slowCallMillis          calls taking longer count as failed, or 0 to ignore latency
+     * @param openMillis              how long the breaker stays open before probing
+     */
+    CircuitBreaker(String name, int failurePercentThreshold, long slowCallMillis, long openMillis) {
+        this.name = name;
+        this.failurePercentThreshold = failurePercentThreshold;
+        this.slowCallNanos = slowCallMillis * 1000000L;
+        this.openNanos = openMillis * 1000000L;
+    }
+
+    /**
+     * @return true if a call may be made, in which case its outcome must be recorded
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * Like {@link #tryAcquire()}, but fails the build step if the breaker is open.
+     */
+    void acquire() {
+        if (!tryAcquire()) {
+            throw rejection();
+        }
+    }
+
+    /**
+     * Fails the build step if the breaker is open, without taking the probe call of a half open breaker.
+     */
+    void failFastIfOpen() {
+        final boolean rejecting;
+        synchronized (this) {
+            rejecting = (state == State.OPEN && System.nanoTime() - openedAt < openNanos) || (state == State.HALF_OPEN && probing);
+        }
+        if (rejecting) {
+            throw rejection();
+        }
+    }
+
+    /**
+     * @param failure true if the call failed in a way that indicates a problem with the service
+     * @param nanos   how long the call took
+     */
+    synchronized void record(boolean failure, long nanos) {
+        final boolean bad = failure || (slowCallNanos > 0 && nanos > slowCallNanos);
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            if (bad) {
+                open();
+            } else {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // a call started before the breaker opened
+            return;
+        }
+
+        if (calls == WINDOW && failed[next]) {
+            failures--;
+        }
+        failed[next] = bad;
+        next = (next + 1) % WINDOW;
+        calls = Math.min(calls + 1, WINDOW);
+        if (bad) {
+            failures++;
+        }
+
+        if (calls >= MIN_CALLS && failures * 100 >= failurePercentThreshold * calls) {
+            open();
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return one-line state for the management page
+     */
+    synchronized String status() {
+        switch (state) {
+            case CLOSED:
+                return name + ": closed, " + failures + " of the last " + calls + " calls failed or were slow";
+            case OPEN:
+                return name + ": open, failing fast for another " + getRetrySeconds() + " s";
+            default:
+                return name + ": half open, probing";
+        }
+    }
+
+    private HerokuJenkinsHandledException rejection() {
+        return new HerokuJenkinsHandledException(name + " is failing or slow for many recent calls, so this step is failing fast. " +
+                "Calls will be tried again in " + getRetrySeconds() + " s.");
+    }
+
+    private synchronized long getRetrySeconds() {
+        return Math.max(0, (openNanos - (System.nanoTime() - openedAt)) / 1000000000L);
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        next = 0;
+        calls = 0;
+        failures = 0;
+    }
+}
@@ -0,0 +1,61 @@
+package com.heroku;
+
+import com.heroku.api.connection.Connection;
+import com.heroku.api.exception.RequestFailedException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Wraps a Heroku API connection so that requests are rejected while a {@link CircuitBreaker} is open,
+ * and their outcomes and latencies are recorded with it otherwise.
+ * Server errors and failures to get any response count as failed; other error responses are the caller's problem
+ * and count as answered.
+ *
+ * @author Ryan Brainard
+ */
+final class CircuitBreakingConnection implements InvocationHandler {
+
+    private final Connection connection;
+    private final CircuitBreaker breaker;
+
+    private CircuitBreakingConnection(Connection connection, CircuitBreaker breaker) {
+        this.connection = connection;
+        this.breaker = breaker;
+    }
+
+    static Connection wrap(Connection connection, CircuitBreaker breaker) {
+        return (Connection) Proxy.newProxyInstance(CircuitBreakingConnection.class.getClassLoader(), new Class[]{Connection.class},
+                new CircuitBreakingConnection(connection, breaker));
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (!method.getName().equals("execute")) {
+            return call(method, args);
+        }
+
+        breaker.acquire();
+        final long start = System.nanoTime();
+        boolean failure = true;
+        try {
+            final Object result = call(method, args);
+            failure = false;
+            return result;
+        } catch (RequestFailedException e) {
+            failure = e.getStatusCode() >= 500;
+            throw e;
+        } finally {
+            breaker.record(failure, System.nanoTime() - start);
+        }
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
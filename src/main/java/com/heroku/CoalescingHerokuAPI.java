@@ -0,0 +1,118 @@
+package com.heroku;
+
+import com.heroku.api.App;
+import com.heroku.api.HerokuAPI;
+import com.heroku.api.Proc;
+import com.heroku.api.Release;
+import com.heroku.api.User;
+import com.heroku.api.connection.Connection;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heroku API client for a single build step, over a shared client's connection, whose reads are coalesced
+ * with identical reads in flight from other steps using the same API key.
+ * <p/>
+ * Only reads are overridden, and are retried and hedged following an {@link ApiReadPolicy};
+ * every other call, including all mutations, goes straight to the API, once.
+ * Each read answered by another step's call is noted in the build log.
+ * Results may be shared with other steps, so callers must not modify returned collections.
+ *
+ * @author Ryan Brainard
+ */
+class CoalescingHerokuAPI extends HerokuAPI {
+
+    private final SingleFlight reads;
+    private final ApiReadPolicy readPolicy;
+    private final ApiRateLimiter limiter;
+    private final PrintStream logger;
+
+    /**
+     * @param limiter rate limiting the connection's requests, so reads are not hedged while requests are queueing for it
+     */
+    CoalescingHerokuAPI(Connection connection, String apiKey, SingleFlight reads, ApiReadPolicy readPolicy, ApiRateLimiter limiter, PrintStream logger) {
+        super(connection, apiKey);
+        this.reads = reads;
+        this.readPolicy = readPolicy;
+        this.limiter = limiter;
+        this.logger = logger;
+    }
+
+    @Override
+    public App getApp(final String appName) {
+        return read("getApp", appName, new SingleFlight.Call<App>() {
+            public App call() {
+                return CoalescingHerokuAPI.super.getApp(appName);
+            }
+        });
+    }
+
+    @Override
+    public User getUserInfo() {
+        return read("getUserInfo", "", new SingleFlight.Call<User>() {
+            public User call() {
+                return CoalescingHerokuAPI.super.getUserInfo();
+            }
+        });
+    }
+
+    @Override
+    public List<Release> listReleases(final String appName) {
+        return read("listReleases", appName, new SingleFlight.Call<List<Release>>() {
+            public List<Release> call() {
+                return CoalescingHerokuAPI.super.listReleases(appName);
+            }
+        });
+    }
+
+    @Override
+    public Release getReleaseInfo(final String appName, final String releaseName) {
+        return read("getReleaseInfo", appName + ", " + releaseName, new SingleFlight.Call<Release>() {
+            public Release call() {
+                return CoalescingHerokuAPI.super.getReleaseInfo(appName, releaseName);
+            }
+        });
+    }
+
+    @Override
+    public Map<String, String> listConfig(final String appName) {
+        return read("listConfig", appName, new SingleFlight.Call<Map<String, String>>() {
+            public Map<String, String> call() {
+                return CoalescingHerokuAPI.super.listConfig(appName);
+            }
+        });
+    }
+
+    @Override
+    public List<Proc> listProcesses(final String appName) {
+        return read("listProcesses", appName, new SingleFlight.Call<List<Proc>>() {
+            public List<Proc> call() {
+                return CoalescingHerokuAPI.super.listProcesses(appName);
+            }
+        });
+    }
+
+    @Override
+    public boolean isMaintenanceModeEnabled(final String appName) {
+        return read("isMaintenanceModeEnabled", appName, new SingleFlight.Call<Boolean>() {
+            public Boolean call() {
+                return CoalescingHerokuAPI.super.isMaintenanceModeEnabled(appName);
+            }
+        });
+    }
+
+    private <T> T read(final String operation, String args, final SingleFlight.Call<T> read) {
+        final String call = operation + "(" + args + ")";
+        final SingleFlight.Result<T> result = reads.execute(getApiKey() + "\n" + call, new SingleFlight.Call<T>() {
+            public T call() {
+                return readPolicy.read(operation, read, limiter, logger);
+            }
+        });
+        if (result.shared && logger != null) {
+            logger.println("Shared result of " + call + " already in flight for a concurrent build");
+        }
+        return result.value;
+    }
+}
@@ -0,0 +1,183 @@
+package com.heroku;
+
+import com.heroku.janvil.Manifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact, append-only store of manifest entries for large workspaces.
+ * <p/>
+ * Paths are front-coded: each entry stores only the length of the prefix it shares with the previous path
+ * plus its remaining UTF-8 bytes, which collapses the long common directory prefixes of a scan into a few bytes.
+ * Digests are packed as fixed-width bytes into one contiguous buffer, which may be allocated off-heap.
+ * No per-entry objects are retained; janvil's {@link Manifest} is only created at the wire boundary by {@link #toManifest(File)}.
+ *
+ * @author Ryan Brainard
+ */
+class CompactManifest {
+
+    static final int DIGEST_LENGTH = 32;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final boolean offHeap;
+    private byte[] paths = new byte[INITIAL_CAPACITY * 16];
+    private int pathsLength;
+    private byte[] lastPath = new byte[256];
+    private int lastPathLength;
+    private ByteBuffer digests;
+    private int size;
+
+    CompactManifest() {
+        this(Boolean.getBoolean("com.heroku.jenkins.manifest.offHeap"));
+    }
+
+    CompactManifest(boolean offHeap) {
+        this.offHeap = offHeap;
+        this.digests = allocate(INITIAL_CAPACITY * DIGEST_LENGTH);
+    }
+
+    void add(String relativePath, byte[] digest) {
+        if (digest.length != DIGEST_LENGTH) {
+            throw new IllegalArgumentException("Expected " + DIGEST_LENGTH + " byte digest, but was " + digest.length);
+        }
+
+        final byte[] path = utf8(relativePath);
+        int shared = 0;
+        final int maxShared = Math.min(path.length, lastPathLength);
+        while (shared < maxShared && path[shared] == lastPath[shared]) {
+            shared++;
+        }
+
+        ensurePathsCapacity(10 + path.length - shared);
+        writeVarInt(shared);
+        writeVarInt(path.length - shared);
+        System.arraycopy(path, shared, paths, pathsLength, path.length - shared);
+        pathsLength += path.length - shared;
+
+        if (lastPath.length < path.length) {
+            lastPath = new byte[Math.max(path.length, lastPath.length * 2)];
+        }
+        System.arraycopy(path, 0, lastPath, 0, path.length);
+        lastPathLength = path.length;
+
+        if (digests.remaining() < DIGEST_LENGTH) {
+            final ByteBuffer grown = allocate(digests.capacity() * 2);
+            digests.flip();
+            grown.put(digests);
+            digests = grown;
+        }
+        digests.put(digest);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Visits entries in the order they were added.
+     */
+    void visit(EntryVisitor visitor) throws IOException {
+        final ByteBuffer digestView = digests.duplicate();
+        digestView.flip();
+
+        byte[] path = new byte[lastPath.length];
+        final byte[] digest = new byte[DIGEST_LENGTH];
+        final int[] position = {0};
+        for (int i = 0; i < size; i++) {
+            final int shared = readVarInt(position);
+            final int suffix = readVarInt(position);
+            if (path.length < shared + suffix) {
+                path = Arrays.copyOf(path, shared + suffix);
+            }
+            System.arraycopy(paths, position[0], path, shared, suffix);
+            position[0] += suffix;
+
+            digestView.get(digest);
+            visitor.visit(new String(path, 0, shared + suffix, "UTF-8"), digest);
+        }
+    }
+
+    /**
+     * Converts to janvil's manifest for sending to Anvil.
+     */
+    Manifest toManifest(final File dir) throws IOException {
+        final Manifest manifest = new Manifest(dir);
+        visit(new EntryVisitor() {
+            public void visit(String relativePath, byte[] digest) throws IOException {
+                manifest.add(new File(dir, relativePath), DigestIndex.hex(digest));
+            }
+        });
+        return manifest;
+    }
+
+    /**
+     * @return approximate bytes retained by this manifest, counting buffer capacity whether on or off the heap
+     */
+    long footprintBytes() {
+        return paths.length + lastPath.length + digests.capacity();
+    }
+
+    /**
+     * @param overheadBytes approximate bytes held alongside the manifest while it is built, such as by its digest index
+     * @return one-line description of the space used, for the build log
+     */
+    String memoryReport(long overheadBytes) {
+        final long totalBytes = footprintBytes() + overheadBytes;
+        final long perTenThousand = size == 0 ? 0 : totalBytes * 10000 / size;
+        return "Manifest of " + size + " files held in " + kb(footprintBytes()) + " KB " +
+                (offHeap ? "off-heap" : "on-heap") + ", " + kb(totalBytes) + " KB with the digest index and hashing" +
+                " (" + kb(perTenThousand) + " KB per 10k files)";
+    }
+
+    interface EntryVisitor {
+        void visit(String relativePath, byte[] digest) throws IOException;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private void ensurePathsCapacity(int additional) {
+        if (pathsLength + additional > paths.length) {
+            paths = Arrays.copyOf(paths, Math.max(pathsLength + additional, paths.length * 2));
+        }
+    }
+
+    private void writeVarInt(int value) {
+        while ((value & ~0x7f) != 0) {
+            paths[pathsLength++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        paths[pathsLength++] = (byte) value;
+    }
+
+    private int readVarInt(int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = paths[position[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long kb(long bytes) {
+        return (bytes + 1023) / 1024;
+    }
+}
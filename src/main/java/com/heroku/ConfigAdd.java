@@ -3,30 +3,55 @@ package com.heroku;
 import com.heroku.api.App;
 import com.heroku.api.HerokuAPI;
 import com.heroku.api.Release;
+import hudson.EnvVars;
 import hudson.Extension;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
 import hudson.util.FormValidation;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * @author Ryan Brainard
  */
 public class ConfigAdd extends AbstractHerokuBuildStep {
 
+    /**
+     * Most bytes of config vars set in one request, and so in one release and restart. The default is the 32 KB Heroku
+     * allows an app's whole config to take, so any config that fits the app goes in a single release.
+     */
+    static final int MAX_REQUEST_BYTES = Integer.getInteger("com.heroku.jenkins.config.maxRequestBytes", 32 * 1024);
+
     private String configVars;
+    private String configFile;
+    private boolean deferred;
 
-    @DataBoundConstructor
     public ConfigAdd(String apiKey, String appName, String configVars) {
+        this(apiKey, appName, configVars, null, false);
+    }
+
+    @DataBoundConstructor
+    public ConfigAdd(String apiKey, String appName, String configVars, String configFile, boolean deferred) {
         super(apiKey, appName);
         this.configVars = configVars;
+        this.configFile = configFile;
+        this.deferred = deferred;
     }
 
     // Overriding and delegating to parent because Jelly only looks at concrete class when rendering views
@@ -45,20 +70,139 @@ public class ConfigAdd extends AbstractHerokuBuildStep {
         return configVars;
     }
 
+    /**
+     * @return path of a .env or .properties file in the workspace to read config vars from, or null
+     */
+    public String getConfigFile() {
+        return configFile;
+    }
+
+    /**
+     * @return true to leave setting the config vars to the end of the build, together with those of other such steps
+     */
+    public boolean isDeferred() {
+        return deferred;
+    }
+
     @Override
     protected boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener, HerokuAPI api, App app) throws IOException, InterruptedException {
-        listener.getLogger().println("Setting config vars and restarting " + app.getName() + "...");
+        final EnvVars env = build.getEnvironment(listener);
+        final Map<String, String> stepConfigVars = new HashMap<String, String>();
+        if (Util.fixEmptyAndTrim(configFile) != null) {
+            final String expandedConfigFile = env.expand(configFile.trim());
+            stepConfigVars.putAll(build.getWorkspace().act(new ConfigFile.ReadCallable(expandedConfigFile)));
+            listener.getLogger().println("Read " + stepConfigVars.size() + " config var(s) from " + expandedConfigFile);
+        }
+        if (Util.fixEmptyAndTrim(configVars) != null) {
+            stepConfigVars.putAll(MappingConverter.convert(env.expand(configVars)));
+        }
+        final DeferredConfig deferredConfig = HerokuPlugin.get().getDeferredConfig();
+
+        if (deferred) {
+            deferredConfig.defer(build, getEffectiveApiKey(), app.getName(), stepConfigVars);
+            listener.getLogger().println("Setting " + stepConfigVars.size() + " config var(s) on " + app.getName() + " at the end of the build");
+            return true;
+        }
+
+        // apply the changes of earlier deferring steps along with these, in the same release
+        final Map<String, String> wanted = deferredConfig.take(build, getEffectiveApiKey(), app.getName());
+        wanted.putAll(stepConfigVars);
+        apply(api, app.getName(), wanted, listener.getLogger());
+        return true;
+    }
 
-        final String expandedConfigVars = build.getEnvironment(listener).expand(configVars);
-        api.addConfig(app.getName(), MappingConverter.convert(expandedConfigVars));
+    /**
+     * Sets those of the config vars that differ from the app's current config, if any.
+     *
+     * @return true if a new release was created
+     */
+    static boolean apply(HerokuAPI api, String appName, Map<String, String> configVars, PrintStream logger) {
+        // may be shared with concurrent reads of the same config, so only read from it
+        final Map<String, String> currentConfigVars = api.listConfig(appName);
+        final Map<String, String> changes = changes(currentConfigVars, configVars);
+        if (changes.isEmpty()) {
+            logger.println("Config vars of " + appName + " are already set, skipping release and restart");
+            return false;
+        }
 
-        final List<Release> releases = api.listReleases(app.getName());
-        final Release currentRelease = releases.get(releases.size() - 1);
-        listener.getLogger().println("Done, " + currentRelease.getName());
+        final List<Map<String, String>> batches = batches(changes, MAX_REQUEST_BYTES);
+        logger.println("Setting config vars " + new TreeSet<String>(changes.keySet()) + " and restarting " + appName +
+                (batches.size() > 1 ? " in " + batches.size() + " releases, each restarting the app" : "") + "...");
+        for (Map<String, String> batch : batches) {
+            api.addConfig(appName, batch);
+        }
 
+        final Release currentRelease = HerokuPlugin.get().getReleaseIndex().current(api, appName);
+        logger.println(currentRelease != null ? "Done, " + currentRelease.getName() : "Done");
         return true;
     }
 
+    /**
+     * Splits config vars into batches of roughly at most maxBytes to send in a single request each, in key order.
+     * A config var too large for a batch of its own is sent in one anyway.
+     */
+    static List<Map<String, String>> batches(Map<String, String> configVars, int maxBytes) {
+        final List<Map<String, String>> batches = new ArrayList<Map<String, String>>();
+        Map<String, String> batch = new HashMap<String, String>();
+        int batchBytes = 0;
+        for (Map.Entry<String, String> configVar : new TreeMap<String, String>(configVars).entrySet()) {
+            // quotes, colon and comma around each pair in the JSON body
+            final int bytes = jsonBytes(configVar.getKey()) + jsonBytes(configVar.getValue()) + 6;
+            if (!batch.isEmpty() && batchBytes + bytes > maxBytes) {
+                batches.add(batch);
+                batch = new HashMap<String, String>();
+                batchBytes = 0;
+            }
+            batch.put(configVar.getKey(), configVar.getValue());
+            batchBytes += bytes;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * @return bytes the string takes in a UTF-8 encoded JSON body, without its quotes
+     */
+    static int jsonBytes(String value) {
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                bytes += 2;
+            } else if (c < 0x20) {
+                // escaped as a six character unicode escape at most
+                bytes += 6;
+            } else if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return config vars wanted that are not set, or set to a different value, in the current config,
+     * with null values wanted as empty ones
+     */
+    static Map<String, String> changes(Map<String, String> current, Map<String, String> wanted) {
+        final Map<String, String> changes = new HashMap<String, String>();
+        for (Map.Entry<String, String> configVar : wanted.entrySet()) {
+            final String value = Util.fixNull(configVar.getValue());
+            if (current == null || !current.containsKey(configVar.getKey()) || !value.equals(Util.fixNull(current.get(configVar.getKey())))) {
+                changes.put(configVar.getKey(), value);
+            }
+        }
+        return changes;
+    }
+
 
     @Override
     public ConfigAddDescriptor getDescriptor() {
@@ -83,4 +227,37 @@ public class ConfigAdd extends AbstractHerokuBuildStep {
             }
         }
     }
+
+    /**
+     * Sets the config vars deferred by a build's steps, unless the build failed.
+     */
+    @Extension
+    public static final class DeferredConfigApplier extends RunListener<AbstractBuild> {
+
+        public DeferredConfigApplier() {
+            super(AbstractBuild.class);
+        }
+
+        @Override
+        public void onCompleted(AbstractBuild build, TaskListener listener) {
+            final HerokuPlugin plugin = HerokuPlugin.get();
+            for (DeferredConfig.Pending pending : plugin.getDeferredConfig().takeAll(build)) {
+                if (build.getResult() != null && build.getResult().isWorseThan(Result.UNSTABLE)) {
+                    listener.getLogger().println("Build did not succeed, so config vars deferred for " + pending.appName + " are not set");
+                    continue;
+                }
+
+                final HerokuAPI sharedApi = plugin.getApiClients().acquire(pending.apiKey);
+                try {
+                    apply(createStepApi(build.getFullDisplayName(), listener.getLogger(), sharedApi), pending.appName, pending.configVars, listener.getLogger());
+                } catch (RuntimeException e) {
+                    // API failures and handled errors alike
+                    listener.error("Setting config vars deferred for " + pending.appName + " failed: " + e.getMessage());
+                    build.setResult(Result.FAILURE);
+                } finally {
+                    plugin.getApiClients().release(sharedApi);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,140 @@
+package com.heroku;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads config vars from a file in the workspace, on the node the workspace is on, so only the parsed vars cross the channel.
+ * <p/>
+ * Files ending in <code>.properties</code> follow the syntax of {@link Properties#load(Reader)}.
+ * Others are read as <code>.env</code> files: <code>KEY=value</code> lines, optionally prefixed by <code>export</code>,
+ * with <code>#</code> comments, and values optionally in single quotes, taken literally, or double quotes,
+ * with <code>\n</code>, <code>\"</code> and <code>\\</code> escapes, either of which may span several lines.
+ *
+ * @author Ryan Brainard
+ */
+final class ConfigFile {
+
+    private static final Pattern ENV_LINE = Pattern.compile("\\s*(?:export\\s+)?([A-Za-z_][A-Za-z0-9_.\\-]*)\\s*=\\s*(.*)");
+
+    private ConfigFile() {
+    }
+
+    static HashMap<String, String> parseProperties(Reader reader) throws IOException {
+        final Properties properties = new Properties();
+        properties.load(reader);
+        final HashMap<String, String> configVars = new HashMap<String, String>();
+        for (Map.Entry<Object, Object> property : properties.entrySet()) {
+            configVars.put(property.getKey().toString(), property.getValue().toString());
+        }
+        return configVars;
+    }
+
+    /**
+     * @param name of the file, for error messages
+     */
+    static HashMap<String, String> parseEnv(Reader reader, String name) throws IOException {
+        final BufferedReader lines = new BufferedReader(reader);
+        final HashMap<String, String> configVars = new HashMap<String, String>();
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            final String trimmed = line.trim();
+            if (trimmed.length() == 0 || trimmed.startsWith("#")) {
+                continue;
+            }
+
+            final Matcher mapping = ENV_LINE.matcher(line);
+            if (!mapping.matches()) {
+                throw new HerokuJenkinsHandledException("Expected KEY=value on line " + lineNumber + " of " + name);
+            }
+
+            final int startLine = lineNumber;
+            final StringBuilder value = new StringBuilder(mapping.group(2));
+            final char quote = value.length() > 0 ? value.charAt(0) : 0;
+            if (quote == '"' || quote == '\'') {
+                // read on until the closing quote
+                int close;
+                while ((close = closingQuote(value, quote)) == -1) {
+                    final String next = lines.readLine();
+                    if (next == null) {
+                        throw new HerokuJenkinsHandledException("Unterminated quote on line " + startLine + " of " + name);
+                    }
+                    lineNumber++;
+                    value.append('\n').append(next);
+                }
+                final String quoted = value.substring(1, close);
+                configVars.put(mapping.group(1), quote == '"' ? unescape(quoted) : quoted);
+            } else {
+                final int comment = value.indexOf(" #");
+                configVars.put(mapping.group(1), (comment == -1 ? value.toString() : value.substring(0, comment)).trim());
+            }
+        }
+        return configVars;
+    }
+
+    private static int closingQuote(CharSequence value, char quote) {
+        for (int i = 1; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' && quote == '"') {
+                i++;
+            } else if (c == quote) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String unescape(String value) {
+        final StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                final char escaped = value.charAt(++i);
+                unescaped.append(escaped == 'n' ? '\n' : escaped);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * Parses a config file relative to the workspace.
+     */
+    static class ReadCallable implements FilePath.FileCallable<HashMap<String, String>>, Serializable {
+        private final String path;
+
+        ReadCallable(String path) {
+            this.path = path;
+        }
+
+        public HashMap<String, String> invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+            final File file = new File(path).isAbsolute() ? new File(path) : new File(workspace, path);
+            if (!file.isFile()) {
+                throw new HerokuJenkinsHandledException("Config file " + file + " not found");
+            }
+
+            final Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            try {
+                return file.getName().endsWith(".properties") ? parseProperties(reader) : parseEnv(reader, file.getName());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+}
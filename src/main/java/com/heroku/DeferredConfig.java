@@ -0,0 +1,73 @@
+package com.heroku;
+
+import hudson.model.AbstractBuild;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Config var changes that build steps leave to be applied later in the build, so that the changes of several steps
+ * to the same app end up in a single release and restart.
+ *
+ * @author Ryan Brainard
+ */
+final class DeferredConfig {
+
+    /**
+     * Config vars to be set on one app.
+     */
+    static final class Pending {
+        final String apiKey;
+        final String appName;
+        final Map<String, String> configVars = new HashMap<String, String>();
+
+        Pending(String apiKey, String appName) {
+            this.apiKey = apiKey;
+            this.appName = appName;
+        }
+    }
+
+    private final Map<AbstractBuild, Map<String, Pending>> pending = new HashMap<AbstractBuild, Map<String, Pending>>();
+
+    /**
+     * Adds config vars to those to be set on the app, replacing the values of earlier steps
+     */
+    synchronized void defer(AbstractBuild build, String apiKey, String appName, Map<String, String> configVars) {
+        Map<String, Pending> buildPending = pending.get(build);
+        if (buildPending == null) {
+            buildPending = new LinkedHashMap<String, Pending>();
+            pending.put(build, buildPending);
+        }
+
+        final String key = apiKey + "\n" + appName;
+        Pending appPending = buildPending.get(key);
+        if (appPending == null) {
+            appPending = new Pending(apiKey, appName);
+            buildPending.put(key, appPending);
+        }
+        appPending.configVars.putAll(configVars);
+    }
+
+    /**
+     * @return config vars deferred by the build for the app, no longer deferred, or an empty map
+     */
+    synchronized Map<String, String> take(AbstractBuild build, String apiKey, String appName) {
+        final Map<String, Pending> buildPending = pending.get(build);
+        final Pending appPending = buildPending != null ? buildPending.remove(apiKey + "\n" + appName) : null;
+        if (buildPending != null && buildPending.isEmpty()) {
+            pending.remove(build);
+        }
+        return appPending != null ? appPending.configVars : new HashMap<String, String>();
+    }
+
+    /**
+     * @return config vars deferred by the build for each app, in order of the first step deferring them, no longer deferred
+     */
+    synchronized List<Pending> takeAll(AbstractBuild build) {
+        final Map<String, Pending> buildPending = pending.remove(build);
+        return buildPending != null ? new ArrayList<Pending>(buildPending.values()) : new ArrayList<Pending>();
+    }
+}
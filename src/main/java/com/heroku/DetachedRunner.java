@@ -0,0 +1,222 @@
+package com.heroku;
+
+import hudson.model.AbstractBuild;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the output of Heroku processes run by build steps that do not wait for them into their builds' logs,
+ * so that the builds go on with their next steps, and waits for the processes once their builds are otherwise done.
+ * <p/>
+ * Output is read from the library's attached streams on a small, bounded pool of threads shared by all builds.
+ * Processes started while every thread is busy are followed once one is free; until then their output waits on Heroku.
+ *
+ * @author Ryan Brainard
+ */
+final class DetachedRunner {
+
+    private static final int THREADS = Integer.getInteger("com.heroku.jenkins.run.detachedThreads", 8);
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final Map<AbstractBuild, List<RunningProcess>> runs = new HashMap<AbstractBuild, List<RunningProcess>>();
+    private ExecutorService readers;
+
+    /**
+     * @param output attached output of the process, with its command wrapped by {@link ExitStatusInputStream#wrap(String)}
+     * @param spool  archive of the output, only the tail of which is shown once the process exits, or null to stream all of it
+     */
+    void start(AbstractBuild build, String command, String process, InputStream output, PrintStream logger, boolean timestamps,
+               SpooledOutput spool) {
+        final LineStreamer lines = spool != null
+                ? new LineStreamer(spool, timestamps)
+                : new LineStreamer(logger, "[" + process + "] ", timestamps);
+        final RunningProcess run = new RunningProcess(command, process, new ExitStatusInputStream(output), spool);
+
+        synchronized (runs) {
+            List<RunningProcess> buildRuns = runs.get(build);
+            if (buildRuns == null) {
+                buildRuns = new ArrayList<RunningProcess>();
+                runs.put(build, buildRuns);
+            }
+            buildRuns.add(run);
+        }
+
+        readers().execute(new Runnable() {
+            public void run() {
+                IOException failure = null;
+                try {
+                    lines.copy(run.output);
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    run.ended(failure);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for all processes started by the build and logs how they exited.
+     *
+     * @return true if all of them exited with status 0
+     */
+    boolean awaitAll(AbstractBuild build, PrintStream logger) throws InterruptedException {
+        final List<RunningProcess> buildRuns = remove(build);
+        if (buildRuns.isEmpty()) {
+            return true;
+        }
+
+        logger.println("Waiting for " + buildRuns.size() + " detached Heroku process(es) ...");
+        boolean succeeded = true;
+        for (int i = 0; i < buildRuns.size(); i++) {
+            final RunningProcess run = buildRuns.get(i);
+            final IOException failure;
+            try {
+                failure = run.await();
+            } catch (InterruptedException e) {
+                abandon(buildRuns.subList(i, buildRuns.size()), logger);
+                throw e;
+            }
+
+            if (run.spool != null) {
+                logger.println("[" + run.process + "] last lines of `" + run.command + "`:");
+                RunProcess.printTail(run.spool, logger);
+            }
+
+            if (failure != null) {
+                logger.println("`" + run.command + "` (" + run.process + ") output was lost: " + failure);
+                succeeded = false;
+            } else {
+                succeeded &= RunProcess.exited(run.command, run.process, run.output.getExitStatus(), logger);
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Stops streaming the output of processes started by the build, which keep running on Heroku.
+     */
+    void abandon(AbstractBuild build, PrintStream logger) {
+        abandon(remove(build), logger);
+    }
+
+    /**
+     * Stops streaming the output of every process, which keep running on Heroku.
+     */
+    void shutdown() {
+        final List<RunningProcess> all = new ArrayList<RunningProcess>();
+        synchronized (runs) {
+            for (List<RunningProcess> buildRuns : runs.values()) {
+                all.addAll(buildRuns);
+            }
+            runs.clear();
+        }
+        for (RunningProcess run : all) {
+            run.close();
+        }
+
+        synchronized (this) {
+            if (readers != null) {
+                readers.shutdownNow();
+                readers = null;
+            }
+        }
+    }
+
+    private void abandon(List<RunningProcess> buildRuns, PrintStream logger) {
+        for (RunningProcess run : buildRuns) {
+            run.close();
+            logger.println("No longer following `" + run.command + "` (" + run.process + "), which may still be running on Heroku");
+        }
+    }
+
+    private List<RunningProcess> remove(AbstractBuild build) {
+        final List<RunningProcess> buildRuns;
+        synchronized (runs) {
+            buildRuns = runs.remove(build);
+        }
+        return buildRuns != null ? buildRuns : new ArrayList<RunningProcess>();
+    }
+
+    private synchronized ExecutorService readers() {
+        if (readers == null) {
+            readers = Executors.newFixedThreadPool(Math.max(1, THREADS), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "Heroku detached process reader " + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return readers;
+    }
+
+    private static final class RunningProcess {
+        final String command;
+        final String process;
+        final ExitStatusInputStream output;
+        final SpooledOutput spool;
+        private boolean ended;
+        private IOException failure;
+
+        RunningProcess(String command, String process, ExitStatusInputStream output, SpooledOutput spool) {
+            this.command = command;
+            this.process = process;
+            this.output = output;
+            this.spool = spool;
+        }
+
+        void ended(IOException failure) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // all of the output was read, or it was lost anyway
+            }
+            if (spool != null) {
+                try {
+                    spool.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            synchronized (this) {
+                this.ended = true;
+                this.failure = failure;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Closes the output, which ends a read in progress and skips the read if it has not started.
+         */
+        void close() {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // no longer followed either way
+            }
+        }
+
+        /**
+         * @return why the output was lost, or null if all of it was read
+         */
+        synchronized IOException await() throws InterruptedException {
+            while (!ended) {
+                wait();
+            }
+            return failure;
+        }
+    }
+}
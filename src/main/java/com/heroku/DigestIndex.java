@@ -0,0 +1,411 @@
+package com.heroku;
+
+import hudson.FilePath;
+import hudson.Util;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Persistent index of file digests for a push directory, stored in the workspace's temporary directory beside it,
+ * so the index is never part of what is scanned or pushed. Entries are keyed by relative path and are only reused when the file's size and modification time are unchanged,
+ * so files that have not been touched since the last push do not need to be read and hashed again.
+ * <p/>
+ * Modification times may only be recorded to the second, so a file rewritten at the same size within the same
+ * second as it was hashed would look unchanged. As in git, entries modified no earlier than the index itself was
+ * written are treated as racily clean and hashed again. The index file's own modification time is used for this,
+ * so both times come from the same filesystem clock at the same precision.
+ * <p/>
+ * The saved entries are read on the first lookup into arrays sorted by path, with no objects per entry.
+ * Entries of this scan are added to a {@link CompactManifest}, usually the one being pushed, so paths and digests
+ * are only held there and the index itself keeps just their sizes and modification times.
+ * <p/>
+ * Lookups may be made concurrently, but entries are added by one thread at a time.
+ * Entries not added since {@link #load(File, CompactManifest)} are dropped on {@link #save()}.
+ *
+ * @author Ryan Brainard
+ */
+class DigestIndex {
+
+    static final String INDEX_DIR = "heroku-digests";
+
+    private static final String HEADER = "# anvil digest index v1";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final long MAPPED_READ_THRESHOLD = 8 * 1024 * 1024;
+    private static final long MAPPED_READ_WINDOW = 64 * 1024 * 1024;
+
+    private final File indexFile;
+    private final long savedAt;
+    private final CompactManifest current;
+    private Previous previous;
+    private long[] sizes = new long[1024];
+    private long[] mtimes = new long[1024];
+    private int reused;
+    private int computed;
+
+    private DigestIndex(File indexFile, long savedAt, CompactManifest current) {
+        this.indexFile = indexFile;
+        this.savedAt = savedAt;
+        this.current = current;
+    }
+
+    /**
+     * @param workspace of the build
+     * @param baseDir   directory within the workspace that is scanned, or null or empty for all of it
+     * @return path, on the node of the workspace, of the index for the directory, which is in the workspace's
+     * temporary directory as used by Jenkins, <code>workspace@tmp</code>
+     */
+    static String indexPath(FilePath workspace, String baseDir) throws UnsupportedEncodingException {
+        final FilePath tmp = workspace.getParent().child(workspace.getName() + "@tmp");
+        return tmp.child(INDEX_DIR).child("digests-" + URLEncoder.encode(Util.fixNull(baseDir), "UTF-8")).getRemote();
+    }
+
+    /**
+     * Opens the index in the given file, adding the entries of this scan to a manifest of its own.
+     */
+    static DigestIndex load(File indexFile) {
+        return load(indexFile, new CompactManifest());
+    }
+
+    /**
+     * Opens the index in the given file, which is only read on the first lookup.
+     * A missing or unreadable index results in an empty one.
+     *
+     * @param current empty manifest to which the entries of this scan are added
+     */
+    static DigestIndex load(File indexFile, CompactManifest current) {
+        return new DigestIndex(indexFile, indexFile.lastModified(), current);
+    }
+
+    /**
+     * Looks up the file's digest and adds it to the manifest.
+     *
+     * @return SHA-256 digest of the file
+     */
+    byte[] digest(File f, String relativePath) throws IOException {
+        final Entry entry = lookup(f, relativePath);
+        add(relativePath, entry);
+        return entry.digest;
+    }
+
+    /**
+     * @return SHA-256 digest of the file, reused from the index if the file is unchanged and was modified before the index was saved,
+     * with the size and modification time it was taken at
+     */
+    Entry lookup(File f, String relativePath) throws IOException {
+        final long size = f.length();
+        final long mtime = f.lastModified();
+
+        final Entry prev = mtime < savedAt ? previous().get(relativePath, size, mtime) : null;
+        final Entry entry = prev != null ? prev : new Entry(size, mtime, sha256(f));
+
+        synchronized (this) {
+            if (entry == prev) {
+                reused++;
+            } else {
+                computed++;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Adds a looked up entry to the manifest, to be saved with the index.
+     */
+    synchronized void add(String relativePath, Entry entry) {
+        final int i = current.size();
+        if (i == sizes.length) {
+            sizes = Arrays.copyOf(sizes, i * 2);
+            mtimes = Arrays.copyOf(mtimes, i * 2);
+        }
+        current.add(relativePath, entry.digest);
+        sizes[i] = entry.size;
+        mtimes[i] = entry.mtime;
+    }
+
+    /**
+     * Writes the entries added in this scan, replacing the previous index atomically where the platform allows.
+     */
+    synchronized void save() throws IOException {
+        final File dir = indexFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+
+        final File tmp = new File(dir, indexFile.getName() + ".tmp");
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            current.visit(new CompactManifest.EntryVisitor() {
+                private int i;
+
+                public void visit(String relativePath, byte[] digest) throws IOException {
+                    writer.write(hex(digest));
+                    writer.write('\t');
+                    writer.write(String.valueOf(sizes[i]));
+                    writer.write('\t');
+                    writer.write(String.valueOf(mtimes[i]));
+                    writer.write('\t');
+                    writer.write(relativePath);
+                    writer.write('\n');
+                    i++;
+                }
+            });
+        } finally {
+            closeQuietly(writer);
+        }
+
+        if (!tmp.renameTo(indexFile)) {
+            // rename does not replace existing files on all platforms
+            if (!indexFile.delete() || !tmp.renameTo(indexFile)) {
+                throw new IOException("Could not replace " + indexFile);
+            }
+        }
+    }
+
+    synchronized int getReused() {
+        return reused;
+    }
+
+    synchronized int getComputed() {
+        return computed;
+    }
+
+    /**
+     * @return approximate bytes retained by the index, not counting its manifest
+     */
+    synchronized long footprintBytes() {
+        return (sizes.length + mtimes.length) * 8L + (previous != null ? previous.footprintBytes() : 0);
+    }
+
+    private synchronized Previous previous() {
+        if (previous == null) {
+            previous = Previous.read(indexFile);
+        }
+        return previous;
+    }
+
+    /**
+     * Large files are read through memory-mapped windows to avoid copying them through a heap buffer.
+     */
+    static byte[] sha256(File f) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final FileInputStream in = new FileInputStream(f);
+        try {
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            if (size >= MAPPED_READ_THRESHOLD) {
+                for (long position = 0; position < size; position += MAPPED_READ_WINDOW) {
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_READ_WINDOW, size - position)));
+                }
+            } else {
+                final byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        return digest.digest();
+    }
+
+    static String hex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    static byte[] unhex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new NumberFormatException("Odd length hex string: " + hex);
+        }
+
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    static final class Entry {
+        final long size;
+        final long mtime;
+        final byte[] digest;
+
+        Entry(long size, long mtime, byte[] digest) {
+            this.size = size;
+            this.mtime = mtime;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * Saved entries, as UTF-8 paths packed into one array and sorted by their bytes, with the size, modification time
+     * and digest of each at the same position in arrays of their own.
+     */
+    private static final class Previous {
+        private byte[] paths = new byte[16 * 1024];
+        private int[] offsets = new int[1025];
+        private long[] sizes = new long[1024];
+        private long[] mtimes = new long[1024];
+        private byte[] digests = new byte[1024 * CompactManifest.DIGEST_LENGTH];
+        private int size;
+
+        static Previous read(File indexFile) {
+            Previous entries = new Previous();
+            if (indexFile.isFile()) {
+                BufferedReader reader = null;
+                try {
+                    reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+                    if (HEADER.equals(reader.readLine())) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            final String[] fields = line.split("\t", 4);
+                            if (fields.length == 4) {
+                                entries.add(utf8(fields[3]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), unhex(fields[0]));
+                            }
+                        }
+                    }
+                    entries = entries.sorted();
+                } catch (IOException e) {
+                    entries = new Previous();
+                } catch (RuntimeException e) {
+                    // malformed numbers or digests
+                    entries = new Previous();
+                } finally {
+                    closeQuietly(reader);
+                }
+            }
+            return entries;
+        }
+
+        Entry get(String relativePath, long size, long mtime) {
+            final byte[] path = utf8(relativePath);
+            int low = 0;
+            int high = this.size - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compare(mid, path);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else if (sizes[mid] == size && mtimes[mid] == mtime) {
+                    return new Entry(size, mtime, Arrays.copyOfRange(digests, mid * CompactManifest.DIGEST_LENGTH, (mid + 1) * CompactManifest.DIGEST_LENGTH));
+                } else {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        long footprintBytes() {
+            return paths.length + offsets.length * 4L + (sizes.length + mtimes.length) * 8L + digests.length;
+        }
+
+        private void add(byte[] path, long size, long mtime, byte[] digest) {
+            if (digest.length != CompactManifest.DIGEST_LENGTH) {
+                throw new IllegalArgumentException("Expected " + CompactManifest.DIGEST_LENGTH + " byte digest, but was " + digest.length);
+            }
+            if (this.size == sizes.length) {
+                offsets = Arrays.copyOf(offsets, this.size * 2 + 1);
+                sizes = Arrays.copyOf(sizes, this.size * 2);
+                mtimes = Arrays.copyOf(mtimes, this.size * 2);
+                digests = Arrays.copyOf(digests, digests.length * 2);
+            }
+            final int offset = offsets[this.size];
+            if (offset + path.length > paths.length) {
+                paths = Arrays.copyOf(paths, Math.max(offset + path.length, paths.length * 2));
+            }
+            System.arraycopy(path, 0, paths, offset, path.length);
+            offsets[this.size + 1] = offset + path.length;
+            sizes[this.size] = size;
+            mtimes[this.size] = mtime;
+            System.arraycopy(digest, 0, digests, this.size * CompactManifest.DIGEST_LENGTH, CompactManifest.DIGEST_LENGTH);
+            this.size++;
+        }
+
+        /**
+         * @return these entries sorted by path, trimmed to their size
+         */
+        private Previous sorted() {
+            final Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Previous.this.compare(a, paths, offsets[b], offsets[b + 1]);
+                }
+            });
+
+            final Previous sorted = new Previous();
+            sorted.paths = new byte[offsets[size]];
+            sorted.offsets = new int[size + 1];
+            sorted.sizes = new long[size];
+            sorted.mtimes = new long[size];
+            sorted.digests = new byte[size * CompactManifest.DIGEST_LENGTH];
+            for (int i : order) {
+                sorted.add(Arrays.copyOfRange(paths, offsets[i], offsets[i + 1]), sizes[i], mtimes[i],
+                        Arrays.copyOfRange(digests, i * CompactManifest.DIGEST_LENGTH, (i + 1) * CompactManifest.DIGEST_LENGTH));
+            }
+            return sorted;
+        }
+
+        private int compare(int i, byte[] path) {
+            return compare(i, path, 0, path.length);
+        }
+
+        /**
+         * Compares the path of entry i to the given bytes as unsigned bytes, which orders UTF-8 as code points.
+         */
+        private int compare(int i, byte[] other, int from, int to) {
+            final int start = offsets[i];
+            final int length = offsets[i + 1] - start;
+            final int otherLength = to - from;
+            for (int k = 0; k < Math.min(length, otherLength); k++) {
+                final int cmp = (paths[start + k] & 0xff) - (other[from + k] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - otherLength;
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
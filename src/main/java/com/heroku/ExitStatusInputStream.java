@@ -0,0 +1,131 @@
+package com.heroku;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Output of a process whose command was wrapped by {@link #wrap(String)}, with the line reporting its exit status removed
+ * by an {@link ExitStatusOutputStream}.
+ * <p/>
+ * The output of a process run through the Heroku API says nothing about how the process exited,
+ * so the wrapped command echoes the status once the process is done.
+ *
+ * @author Ryan Brainard
+ */
+final class ExitStatusInputStream extends FilterInputStream {
+
+    private static final int READ_SIZE = 8 * 1024;
+
+    private final Passed passed = new Passed();
+    private final ExitStatusOutputStream filter = new ExitStatusOutputStream(passed);
+    private final byte[] readBuffer = new byte[READ_SIZE];
+    private boolean eof;
+
+    ExitStatusInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Runs the command in a subshell, on lines of its own, so that a trailing comment, a trailing <code>&amp;</code>
+     * or an unclosed quote in the command cannot swallow or detach the status report.
+     *
+     * @return command that also reports its exit status at the end of its output
+     */
+    static String wrap(String command) {
+        return "(\n" + command + "\n)\necho " + ExitStatusOutputStream.MARKER + " $?";
+    }
+
+    /**
+     * @return exit status reported at the end of the output, or null if the output ended without one
+     */
+    Integer getExitStatus() {
+        return filter.getExitStatus();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (passed.available() == 0) {
+            if (eof) {
+                return -1;
+            }
+            final int read = in.read(readBuffer);
+            if (read == -1) {
+                eof = true;
+                filter.close();
+            } else {
+                filter.write(readBuffer, 0, read);
+            }
+        }
+        return passed.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return passed.available();
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return passed.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Output passed on by the filter, until read.
+     */
+    private static final class Passed extends OutputStream {
+        private byte[] bytes = new byte[READ_SIZE * 2];
+        private int start;
+        private int end;
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (end + len > bytes.length) {
+                final byte[] moved = end - start + len > bytes.length ? new byte[Math.max(bytes.length * 2, end - start + len)] : bytes;
+                System.arraycopy(bytes, start, moved, 0, end - start);
+                bytes = moved;
+                end -= start;
+                start = 0;
+            }
+            System.arraycopy(b, off, bytes, end, len);
+            end += len;
+        }
+
+        int available() {
+            return end - start;
+        }
+
+        int read(byte[] b, int off, int len) {
+            final int count = Math.min(len, end - start);
+            System.arraycopy(bytes, start, b, off, count);
+            start += count;
+            return count;
+        }
+
+        long skip(long n) {
+            final int skipped = (int) Math.min(n, end - start);
+            start += skipped;
+            return skipped;
+        }
+    }
+}
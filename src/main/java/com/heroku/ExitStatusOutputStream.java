@@ -0,0 +1,144 @@
+package com.heroku;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Output of a process whose command was wrapped by {@link ExitStatusInputStream#wrap(String)}, passed on without
+ * the line reporting its exit status, which is read once the output is closed.
+ * <p/>
+ * Since the status is the last line of output, only an unfinished line or a complete line that may be the status
+ * are held back; everything else is passed straight on.
+ *
+ * @author Ryan Brainard
+ */
+final class ExitStatusOutputStream extends FilterOutputStream {
+
+    static final String MARKER = "heroku-command-exit-status";
+
+    private static final byte[] MARKER_BYTES = MARKER.getBytes();
+    private static final Pattern STATUS = Pattern.compile(MARKER + "\\s+(\\d+)\\s*");
+    // an unfinished line is held back up to this size, except for its end which may hold the start of the status
+    private static final int MAX_HELD = 8 * 1024;
+
+    private byte[] buffer = new byte[MAX_HELD * 2];
+    private int length;
+    private boolean closed;
+    private Integer exitStatus;
+
+    ExitStatusOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * @return exit status reported at the end of the output, or null if the output is not closed or ended without one
+     */
+    synchronized Integer getExitStatus() {
+        return exitStatus;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (length + len > buffer.length) {
+            final byte[] grown = new byte[Math.max(buffer.length * 2, length + len)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        System.arraycopy(b, off, buffer, length, len);
+        length += len;
+        pass(passable());
+    }
+
+    /**
+     * Reads the exit status and passes on the rest of the output.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        readExitStatus();
+        pass(length);
+        out.close();
+    }
+
+    private void pass(int count) throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            System.arraycopy(buffer, count, buffer, 0, length - count);
+            length -= count;
+        }
+    }
+
+    /**
+     * @return how many bytes at the start of the buffer cannot be part of the exit status line
+     */
+    private int passable() {
+        final int lastNewline = lastIndexOf((byte) '\n', length - 1);
+        if (length - (lastNewline + 1) > MAX_HELD) {
+            return length - MARKER_BYTES.length * 2;
+        }
+        if (lastNewline == -1) {
+            return 0;
+        }
+        final int lastLineStart = lastIndexOf((byte) '\n', lastNewline - 1) + 1;
+        return contains(lastLineStart, lastNewline) ? lastLineStart : lastNewline + 1;
+    }
+
+    private void readExitStatus() {
+        final int marker = lastIndexOfMarker();
+        if (marker == -1) {
+            return;
+        }
+        final Matcher status = STATUS.matcher(new String(buffer, marker, length - marker));
+        if (status.matches()) {
+            exitStatus = Integer.valueOf(status.group(1));
+            length = marker;
+        }
+    }
+
+    private int lastIndexOf(byte b, int from) {
+        for (int i = from; i >= 0; i--) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean contains(int from, int to) {
+        for (int i = from; i + MARKER_BYTES.length <= to; i++) {
+            if (isMarkerAt(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int lastIndexOfMarker() {
+        for (int i = length - MARKER_BYTES.length; i >= 0; i--) {
+            if (isMarkerAt(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isMarkerAt(int index) {
+        for (int i = 0; i < MARKER_BYTES.length; i++) {
+            if (buffer[index + i] != MARKER_BYTES[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,5 +1,6 @@
 package com.heroku;
 
+import com.heroku.api.HerokuAPI;
 import hudson.Plugin;
 import hudson.model.Descriptor;
 import hudson.model.Hudson;
@@ -10,6 +11,9 @@ import org.kohsuke.stapler.StaplerRequest;
 
 import javax.servlet.ServletException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -36,12 +40,52 @@ public final class HerokuPlugin extends Plugin {
         return UnmodifiableMap.decorate(projectProperties);
     }
 
+    private static Map<CircuitBreaker.Endpoint, CircuitBreaker> createCircuitBreakers() {
+        final int failurePercent = Integer.getInteger("com.heroku.jenkins.circuit.failurePercent", 50);
+        final long openMillis = Integer.getInteger("com.heroku.jenkins.circuit.openTime", 30) * 1000L;
+        final Map<CircuitBreaker.Endpoint, CircuitBreaker> breakers = new EnumMap<CircuitBreaker.Endpoint, CircuitBreaker>(CircuitBreaker.Endpoint.class);
+        for (CircuitBreaker.Endpoint endpoint : CircuitBreaker.Endpoint.values()) {
+            // builds and deploys take as long as the app needs, so only platform API calls have a meaningful latency
+            final long slowCallMillis = endpoint == CircuitBreaker.Endpoint.PLATFORM_API ? Integer.getInteger("com.heroku.jenkins.circuit.slowCall", 30) * 1000L : 0;
+            breakers.put(endpoint, new CircuitBreaker(endpoint.displayName, failurePercent, slowCallMillis, openMillis));
+        }
+        return breakers;
+    }
+
     private Secret defaultApiKey;
+    private int metadataCacheTtl = 60;
+    private int apiRateLimit = 2400;
+    private int apiReadRetries = 3;
+    private int apiHedgePercentile = 95;
     private final Map<String, String> projectProperties = loadProjectProperties();
+    private final transient ApiClientRegistry apiClients = new ApiClientRegistry(
+            Integer.getInteger("com.heroku.jenkins.api.maxClients", 16),
+            Integer.getInteger("com.heroku.jenkins.api.idleTimeout", 300) * 1000L,
+            ApiClientRegistry.DEFAULT_CONNECTOR);
+    private final transient MetadataCache metadataCache = new MetadataCache(
+            Integer.getInteger("com.heroku.jenkins.metadataCache.maxEntries", 1000), 0);
+    private final transient Map<CircuitBreaker.Endpoint, CircuitBreaker> circuitBreakers = createCircuitBreakers();
+    private final transient SingleFlight apiReads = new SingleFlight();
+    private final transient ApiReadPolicy apiReadPolicy = new ApiReadPolicy(0, 0);
+    private final transient DetachedRunner detachedRunner = new DetachedRunner();
+    private final transient DeferredConfig deferredConfig = new DeferredConfig();
+    private final transient ReleaseIndex releaseIndex = new ReleaseIndex(
+            Integer.getInteger("com.heroku.jenkins.releaseIndex.maxApps", 1000),
+            Integer.getInteger("com.heroku.jenkins.releaseIndex.releasesPerApp", 20));
 
     @Override
     public void start() throws Exception {
         load();
+        apiClients.setRateLimit(apiRateLimit);
+        metadataCache.setTtl(metadataCacheTtl * 1000L);
+        apiReadPolicy.configure(apiReadRetries, apiHedgePercentile);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        apiClients.close();
+        apiReadPolicy.shutdown();
+        detachedRunner.shutdown();
     }
 
     /**
@@ -62,13 +106,138 @@ public final class HerokuPlugin extends Plugin {
         return Secret.toString(defaultApiKey);
     }
 
+    /**
+     * @return seconds app metadata and user info are cached for, or 0 for no caching
+     */
+    public int getMetadataCacheTtl() {
+        return metadataCacheTtl;
+    }
+
+    /**
+     * @return Heroku API calls per hour each API key may make from this Jenkins instance, or 0 for no limit
+     */
+    public int getApiRateLimit() {
+        return apiRateLimit;
+    }
+
+    /**
+     * @return times Heroku API reads failing with a server error are retried
+     */
+    public int getApiReadRetries() {
+        return apiReadRetries;
+    }
+
+    /**
+     * @return percentile of recent latencies after which a Heroku API read is sent again, or 0 for no hedging
+     */
+    public int getApiHedgePercentile() {
+        return apiHedgePercentile;
+    }
+
+    /**
+     * For Jenkins UI
+     *
+     * @return state of the circuit breaker of each Heroku service
+     */
+    public List<String> getCircuitBreakerStates() {
+        final List<String> states = new ArrayList<String>();
+        for (CircuitBreaker breaker : circuitBreakers.values()) {
+            states.add(breaker.status());
+        }
+        return states;
+    }
+
+    /**
+     * For Jenkins UI
+     *
+     * @return hit and miss counts of the metadata cache
+     */
+    public String getMetadataCacheStats() {
+        return metadataCache.getHits() + " hits, " + metadataCache.getMisses() + " misses, " + metadataCache.size() + " entries";
+    }
+
     @Override
     public void configure(StaplerRequest req, JSONObject formData) throws IOException, ServletException, Descriptor.FormException {
         super.configure(req, formData);
+        final String previousDefaultApiKey = getDefaultApiKeyPlainText();
         defaultApiKey = Secret.fromString(formData.getString("defaultApiKey"));
+        if (previousDefaultApiKey != null && !previousDefaultApiKey.equals(getDefaultApiKeyPlainText())) {
+            apiClients.retire(previousDefaultApiKey);
+        }
+        metadataCacheTtl = Math.max(0, formData.optInt("metadataCacheTtl", 60));
+        metadataCache.setTtl(metadataCacheTtl * 1000L);
+        apiRateLimit = Math.max(0, formData.optInt("apiRateLimit", 2400));
+        apiClients.setRateLimit(apiRateLimit);
+        apiReadRetries = Math.max(0, formData.optInt("apiReadRetries", 3));
+        apiHedgePercentile = Math.max(0, Math.min(99, formData.optInt("apiHedgePercentile", 95)));
+        apiReadPolicy.configure(apiReadRetries, apiHedgePercentile);
         save();
     }
 
+    /**
+     * @return Heroku API clients shared by all build steps
+     */
+    ApiClientRegistry getApiClients() {
+        return apiClients;
+    }
+
+    /**
+     * @param sharedApi client leased from {@link #getApiClients()}
+     * @return schedules the Heroku API calls of all builds using the client's API key
+     */
+    ApiRateLimiter getApiRateLimiter(HerokuAPI sharedApi) {
+        return apiClients.getRateLimiter(sharedApi);
+    }
+
+    /**
+     * @return breaker failing steps fast while the given Heroku service is degraded
+     */
+    CircuitBreaker getCircuitBreaker(CircuitBreaker.Endpoint endpoint) {
+        return circuitBreakers.get(endpoint);
+    }
+
+    /**
+     * @return coalesces identical Heroku API reads in flight at the same time
+     */
+    SingleFlight getApiReads() {
+        return apiReads;
+    }
+
+    /**
+     * @return retry and hedging policy for Heroku API reads
+     */
+    ApiReadPolicy getApiReadPolicy() {
+        return apiReadPolicy;
+    }
+
+    /**
+     * @return follows Heroku processes run by build steps that do not wait for them
+     */
+    DetachedRunner getDetachedRunner() {
+        return detachedRunner;
+    }
+
+    /**
+     * @return config var changes build steps left to the end of their builds
+     */
+    DeferredConfig getDeferredConfig() {
+        return deferredConfig;
+    }
+
+    /**
+     * @return app metadata and user info cached across build steps
+     */
+    MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * @return recent releases of apps, shared by all build steps
+     */
+    ReleaseIndex getReleaseIndex() {
+        return releaseIndex;
+    }
+
     /**
      * @return version of this heroku-jenkins-plugin project from pom.xml
      */
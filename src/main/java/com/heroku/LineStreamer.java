@@ -0,0 +1,257 @@
+package com.heroku;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies process output to a build log in whole lines, a buffer at a time, either read from a stream by {@link #copy(InputStream)}
+ * or written to this stream as it arrives.
+ * <p/>
+ * Output is collected until it ends in a complete line and either enough has been collected
+ * or enough time has passed since the last write, so that a remote log sees few, large writes.
+ * Complete lines are also written on that deadline while no output arrives, and whatever has been collected,
+ * including a partial line such as a prompt, is written once nothing more has arrived for as long,
+ * so output is never held back for longer while the process is quiet. Lines can be prefixed with a fixed label,
+ * such as the name of the process when several share a log, and with the time they started.
+ *
+ * @author Ryan Brainard
+ */
+final class LineStreamer extends OutputStream {
+
+    static final int DEFAULT_FLUSH_BYTES = Integer.getInteger("com.heroku.jenkins.run.flushBytes", 16 * 1024);
+    static final long DEFAULT_FLUSH_MILLIS = Integer.getInteger("com.heroku.jenkins.run.flushMillis", 200);
+
+    private static final int READ_SIZE = 8 * 1024;
+
+    // writes due while no output arrives
+    private static final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "Heroku output flusher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final OutputStream out;
+    private final byte[] label;
+    private final boolean timestamps;
+    private final int flushBytes;
+    private final long flushNanos;
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("[HH:mm:ss.SSS] ");
+
+    private byte[] pending = new byte[READ_SIZE * 2];
+    private int pendingLength;
+    // end of the last complete line in pending
+    private int lineEnd;
+    private boolean atLineStart = true;
+    private long lastFlush = System.nanoTime();
+    private long lastRead = System.nanoTime();
+    private ScheduledFuture<?> deadline;
+    private boolean closed;
+
+    private long bytesCopied;
+    private long lines;
+    private long writes;
+
+    LineStreamer(OutputStream out, boolean timestamps) {
+        this(out, null, timestamps);
+    }
+
+    /**
+     * @param label prefix of every line, or null for none
+     */
+    LineStreamer(OutputStream out, String label, boolean timestamps) {
+        this(out, label, timestamps, DEFAULT_FLUSH_BYTES, DEFAULT_FLUSH_MILLIS);
+    }
+
+    LineStreamer(OutputStream out, boolean timestamps, int flushBytes, long flushMillis) {
+        this(out, null, timestamps, flushBytes, flushMillis);
+    }
+
+    LineStreamer(OutputStream out, String label, boolean timestamps, int flushBytes, long flushMillis) {
+        this.out = out;
+        this.label = label != null ? label.getBytes() : null;
+        this.timestamps = timestamps;
+        this.flushBytes = flushBytes;
+        this.flushNanos = flushMillis * 1000000L;
+    }
+
+    /**
+     * Copies until the end of the input, writing everything collected before returning.
+     *
+     * @return number of bytes read
+     */
+    long copy(InputStream in) throws IOException {
+        try {
+            final byte[] buffer = new byte[READ_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                write(buffer, 0, read);
+            }
+        } finally {
+            close();
+        }
+        return getBytesCopied();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Output already ended");
+        }
+        if (deadline == null) {
+            deadline = deadlines.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        flushDue();
+                    } catch (IOException e) {
+                        // left for the next write to run into
+                    }
+                }
+            }, flushNanos, Math.max(flushNanos / 4, 1000000), TimeUnit.NANOSECONDS);
+        }
+
+        append(b, off, len);
+        bytesCopied += len;
+        lastRead = System.nanoTime();
+
+        if (lineEnd > 0 && (lineEnd >= flushBytes || lastRead - lastFlush >= flushNanos)) {
+            flush(lineEnd);
+        } else if (pendingLength >= flushBytes * 4) {
+            // a very long line
+            flush(pendingLength);
+        }
+    }
+
+    /**
+     * Writes everything collected, including a partial line.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        flush(pendingLength);
+    }
+
+    /**
+     * Writes everything collected, without closing the log.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+        flush(pendingLength);
+    }
+
+    /**
+     * Writes what is due while no output arrives: complete lines once the deadline has passed,
+     * and everything once nothing has arrived for as long.
+     */
+    private synchronized void flushDue() throws IOException {
+        final long now = System.nanoTime();
+        if (closed) {
+            return;
+        } else if (pendingLength > 0 && now - lastRead >= flushNanos) {
+            flush(pendingLength);
+        } else if (lineEnd > 0 && now - lastFlush >= flushNanos) {
+            flush(lineEnd);
+        }
+    }
+
+    synchronized long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    synchronized long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return number of writes made to the output
+     */
+    synchronized long getWrites() {
+        return writes;
+    }
+
+    private void append(byte[] buffer, int offset, int length) {
+        final int stop = offset + length;
+        int start = offset;
+        while (start < stop) {
+            if (atLineStart) {
+                startLine();
+            }
+
+            int end = start;
+            while (end < stop && buffer[end] != '\n') {
+                end++;
+            }
+            atLineStart = end < stop;
+            if (atLineStart) {
+                end++;
+            }
+
+            ensureCapacity(end - start);
+            System.arraycopy(buffer, start, pending, pendingLength, end - start);
+            pendingLength += end - start;
+            if (atLineStart) {
+                lineEnd = pendingLength;
+                lines++;
+            }
+            start = end;
+        }
+    }
+
+    private void startLine() {
+        if (label != null) {
+            appendBytes(label);
+        }
+        if (timestamps) {
+            appendBytes(timestampFormat.format(new Date()).getBytes());
+        }
+    }
+
+    private void appendBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, pending, pendingLength, bytes.length);
+        pendingLength += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (pendingLength + extra > pending.length) {
+            final byte[] grown = new byte[Math.max(pending.length * 2, pendingLength + extra)];
+            System.arraycopy(pending, 0, grown, 0, pendingLength);
+            pending = grown;
+        }
+    }
+
+    /**
+     * Writes the first length bytes collected and keeps the rest.
+     */
+    private void flush(int length) throws IOException {
+        if (length > 0) {
+            out.write(pending, 0, length);
+            out.flush();
+            writes++;
+            System.arraycopy(pending, length, pending, 0, pendingLength - length);
+            pendingLength -= length;
+            lineEnd = Math.max(0, lineEnd - length);
+        }
+        lastFlush = System.nanoTime();
+    }
+}
@@ -0,0 +1,168 @@
+package com.heroku;
+
+import hudson.util.DirScanner;
+import hudson.util.FormValidation;
+import hudson.util.FileVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds a {@link CompactManifest} for the files matched by a {@link DirScanner}.
+ * Digests are looked up in the directory's {@link DigestIndex}, which adds them to the manifest as each file is hashed,
+ * and, when a parallelism greater than 1 is given, files are hashed on a bounded pool of threads
+ * while the directory walk continues, with a bounded number of files in flight.
+ * A parallelism of 1, or 0 as in configurations saved before it could be set, hashes each file on the calling thread
+ * as it is visited.
+ *
+ * @author Ryan Brainard
+ */
+class ManifestBuilder {
+
+    /**
+     * Parallelism of one hashing thread per available processor.
+     */
+    static final int PER_PROCESSOR = -1;
+
+    /**
+     * Files queued per hashing thread, enough to keep the threads busy while the oldest file is added.
+     */
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+
+    /**
+     * Rough heap held per file in flight: its path, file, task and digest.
+     */
+    private static final int IN_FLIGHT_BYTES = 512;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final File dir;
+    private final File indexFile;
+    private final int parallelism;
+    private final PrintStream logger;
+
+    /**
+     * @param indexFile   of the directory's {@link DigestIndex}, see {@link DigestIndex#indexPath}
+     * @param parallelism number of hashing threads, 0 or 1 to hash on the calling thread, or {@link #PER_PROCESSOR}
+     */
+    ManifestBuilder(File dir, File indexFile, int parallelism, PrintStream logger) {
+        this.dir = dir;
+        this.indexFile = indexFile;
+        this.parallelism = parallelism == PER_PROCESSOR ? Runtime.getRuntime().availableProcessors() : Math.max(1, parallelism);
+        this.logger = logger;
+    }
+
+    static FormValidation validateParallelism(String value) {
+        try {
+            if (Integer.parseInt(value.trim()) >= PER_PROCESSOR) {
+                return FormValidation.ok();
+            }
+        } catch (NumberFormatException e) {
+            // not a number
+        }
+        return FormValidation.error("Expected a number of threads, or -1 for one per processor");
+    }
+
+    CompactManifest build(DirScanner scanner) throws IOException, InterruptedException {
+        final CompactManifest manifest = new CompactManifest();
+        final DigestIndex digestIndex = DigestIndex.load(indexFile, manifest);
+
+        final int window;
+        if (parallelism == 1) {
+            window = 0;
+            scanner.scan(dir, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (f.isFile()) {
+                        digestIndex.digest(f, relativePath);
+                    }
+                }
+            });
+        } else {
+            window = parallelism * IN_FLIGHT_PER_THREAD;
+            addInParallel(digestIndex, scanner, window);
+        }
+
+        logger.println("Reused " + digestIndex.getReused() + " file digests, computed " + digestIndex.getComputed());
+        logger.println(manifest.memoryReport(digestIndex.footprintBytes() + window * IN_FLIGHT_BYTES));
+        try {
+            digestIndex.save();
+        } catch (IOException e) {
+            logger.println("Could not save digest index: " + e.getMessage());
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Hashes files on a pool while the walk continues, adding them to the index's manifest in scan order,
+     * so the manifest is the same as when built serially. The walk waits for the oldest file
+     * once the given number of files are in flight, so only that many paths and digests are held outside the manifest.
+     */
+    private void addInParallel(final DigestIndex digestIndex, DirScanner scanner, final int window) throws IOException, InterruptedException {
+        final ExecutorService hashers = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "Heroku manifest hasher " + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        try {
+            final Queue<InFlight> inFlight = new LinkedList<InFlight>();
+            scanner.scan(dir, new FileVisitor() {
+                @Override
+                public void visit(final File f, final String relativePath) throws IOException {
+                    if (f.isFile()) {
+                        inFlight.add(new InFlight(relativePath, hashers.submit(new Callable<DigestIndex.Entry>() {
+                            public DigestIndex.Entry call() throws IOException {
+                                return digestIndex.lookup(f, relativePath);
+                            }
+                        })));
+                        if (inFlight.size() >= window) {
+                            try {
+                                inFlight.remove().addTo(digestIndex);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw (IOException) new InterruptedIOException("Interrupted while hashing " + relativePath).initCause(e);
+                            }
+                        }
+                    }
+                }
+            });
+
+            while (!inFlight.isEmpty()) {
+                inFlight.remove().addTo(digestIndex);
+            }
+        } finally {
+            hashers.shutdownNow();
+        }
+    }
+
+    private static final class InFlight {
+        private final String relativePath;
+        private final Future<DigestIndex.Entry> entry;
+
+        InFlight(String relativePath, Future<DigestIndex.Entry> entry) {
+            this.relativePath = relativePath;
+            this.entry = entry;
+        }
+
+        void addTo(DigestIndex digestIndex) throws IOException, InterruptedException {
+            try {
+                digestIndex.add(relativePath, entry.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to hash " + relativePath + ": " + e.getCause());
+            }
+        }
+    }
+}
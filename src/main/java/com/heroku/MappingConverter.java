@@ -1,47 +1,262 @@
 package com.heroku;
 
-import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Properties;
 
 /**
+ * Parses mappings in the syntax of {@link java.util.Properties#load(java.io.Reader)}, with <code>;</code> also ending lines.
+ * <p/>
+ * Mappings are parsed in a single pass over the input, without the regex replacement and synchronized table
+ * of loading them as {@link java.util.Properties}. The same mappings are parsed again and again, by build steps and on
+ * every keystroke of form validation, so recent results are kept, and each caller gets its own modifiable copy.
+ *
  * @author Ryan Brainard
  */
 class MappingConverter {
 
+    private static final int MAX_CACHED = Integer.getInteger("com.heroku.jenkins.mappings.maxCached", 64);
+    // larger inputs are parsed every time rather than kept alive by the cache
+    private static final int MAX_CACHED_LENGTH = 1024 * 1024;
+
+    private static final Map<String, String[]> parsed = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
     static Map<String, String> convert(String mappings) {
         if (mappings == null) {
             return Collections.emptyMap();
         }
 
-        final Properties props = new Properties();
+        String[] keysAndValues;
+        synchronized (parsed) {
+            keysAndValues = parsed.get(mappings);
+        }
+        if (keysAndValues == null) {
+            keysAndValues = new Parser(mappings).parse();
+            if (mappings.length() <= MAX_CACHED_LENGTH) {
+                synchronized (parsed) {
+                    parsed.put(mappings, keysAndValues);
+                }
+            }
+        }
+
+        final Map<String, String> propsMap = new HashMap<String, String>(Math.max(16, keysAndValues.length));
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            propsMap.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return propsMap;
+    }
+
+    static void clearCache() {
+        synchronized (parsed) {
+            parsed.clear();
+        }
+    }
+
+    /**
+     * Follows the line, comment, continuation, separator and escape rules of {@link java.util.Properties#load(java.io.Reader)}.
+     */
+    private static final class Parser {
+        private final String input;
+        private final int length;
+        private int pos;
+        private final StringBuilder key = new StringBuilder();
+        private final StringBuilder value = new StringBuilder();
+
+        Parser(String input) {
+            this.input = input;
+            this.length = input.length();
+        }
+
+        /**
+         * @return keys and values, alternating
+         */
+        String[] parse() {
+            final Map<String, String> mappings = new HashMap<String, String>();
+            while (skipToLogicalLine()) {
+                key.setLength(0);
+                value.setLength(0);
+                parseKey();
+                skipSeparator();
+                parseValue();
+                mappings.put(key.toString(), value.toString());
+            }
+
+            final String[] keysAndValues = new String[mappings.size() * 2];
+            int i = 0;
+            for (Map.Entry<String, String> mapping : mappings.entrySet()) {
+                keysAndValues[i++] = mapping.getKey();
+                keysAndValues[i++] = mapping.getValue();
+            }
+            return keysAndValues;
+        }
+
+        /**
+         * Skips whitespace, blank lines and comments.
+         *
+         * @return true if positioned at the start of a line's content
+         */
+        private boolean skipToLogicalLine() {
+            while (pos < length) {
+                final char c = input.charAt(pos);
+                if (isWhitespace(c) || isLineEnd(c)) {
+                    pos++;
+                } else if (c == '#' || c == '!') {
+                    while (pos < length && !isLineEnd(input.charAt(pos))) {
+                        pos++;
+                    }
+                } else if (c == '\\' && pos + 2 < length && isLineEnd(input.charAt(pos + 1))) {
+                    // continuing a line with nothing on it yet still leaves it empty
+                    continueLine();
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void parseKey() {
+            while (pos < length) {
+                final char c = input.charAt(pos);
+                if (c == '=' || c == ':' || isWhitespace(c) || isLineEnd(c)) {
+                    return;
+                }
+                pos++;
+                if (c == '\\') {
+                    if (!escape(key)) {
+                        return;
+                    }
+                } else {
+                    key.append(c);
+                }
+            }
+        }
 
-        Reader input = null;
-        try {
-            input = new StringReader(mappings.replaceAll(";", "\n"));
-            props.load(input);
-        } catch (IOException e) {
-            System.err.println("Failed to parse mappings from: " + mappings);
-        } finally {
-            if (input != null) {
-                try {
-                    input.close();
-                } catch (IOException e) {
-                    // ignore
+        private void skipSeparator() {
+            boolean separated = false;
+            while (pos < length) {
+                final char c = input.charAt(pos);
+                if (isWhitespace(c)) {
+                    pos++;
+                } else if (!separated && (c == '=' || c == ':')) {
+                    separated = true;
+                    pos++;
+                } else if (c == '\\' && isLineContinuation()) {
+                    continueLine();
+                } else {
+                    return;
                 }
             }
         }
 
-        final Map<String, String> propsMap = new HashMap<String, String>();
+        private void parseValue() {
+            while (pos < length) {
+                final char c = input.charAt(pos);
+                if (isLineEnd(c)) {
+                    return;
+                }
+                pos++;
+                if (c == '\\') {
+                    if (!escape(value)) {
+                        return;
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+        }
 
-        for (Map.Entry<Object, Object> prop : props.entrySet()) {
-            propsMap.put(prop.getKey().toString(), prop.getValue().toString());
+        /**
+         * Handles the character after a backslash, which may also continue the line.
+         *
+         * @return false if the logical line ended
+         */
+        private boolean escape(StringBuilder to) {
+            if (pos == length) {
+                // a trailing backslash is dropped
+                return false;
+            }
+            final char c = input.charAt(pos);
+            if (isLineEnd(c)) {
+                pos--;
+                continueLine();
+                return pos < length && !isLineEnd(input.charAt(pos));
+            }
+            pos++;
+            switch (c) {
+                case 't':
+                    to.append('\t');
+                    break;
+                case 'r':
+                    to.append('\r');
+                    break;
+                case 'n':
+                    to.append('\n');
+                    break;
+                case 'f':
+                    to.append('\f');
+                    break;
+                case 'u':
+                    to.append(unicode());
+                    break;
+                default:
+                    to.append(c);
+            }
+            return true;
         }
 
-        return propsMap;
+        private char unicode() {
+            int code = 0;
+            for (int i = 0; i < 4; i++) {
+                // the digits may themselves be split across continued lines
+                while (pos + 1 < length && input.charAt(pos) == '\\' && isLineEnd(input.charAt(pos + 1))) {
+                    continueLine();
+                }
+                final char c = pos < length ? input.charAt(pos++) : ';';
+                if (c >= '0' && c <= '9') {
+                    code = (code << 4) + c - '0';
+                } else if (c >= 'a' && c <= 'f') {
+                    code = (code << 4) + 10 + c - 'a';
+                } else if (c >= 'A' && c <= 'F') {
+                    code = (code << 4) + 10 + c - 'A';
+                } else {
+                    throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                }
+            }
+            return (char) code;
+        }
+
+        private boolean isLineContinuation() {
+            return pos + 1 == length || isLineEnd(input.charAt(pos + 1));
+        }
+
+        /**
+         * Skips the backslash at pos, the line end after it, and the leading whitespace of the next line.
+         */
+        private void continueLine() {
+            pos++;
+            if (pos < length) {
+                final char end = input.charAt(pos++);
+                if (end == '\r' && pos < length && (input.charAt(pos) == '\n' || input.charAt(pos) == ';')) {
+                    pos++;
+                }
+            }
+            while (pos < length && isWhitespace(input.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\f';
+        }
+
+        private static boolean isLineEnd(char c) {
+            return c == '\n' || c == '\r' || c == ';';
+        }
     }
 }
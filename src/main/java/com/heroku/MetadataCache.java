@@ -0,0 +1,180 @@
+package com.heroku;
+
+import com.heroku.api.App;
+import com.heroku.api.User;
+import hudson.model.AbstractBuild;
+import hudson.model.InvisibleAction;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Instance-wide cache of app metadata and user info, keyed by API key and app name, with a time to live.
+ * An app created by a step replaces any entries of the same name for every key, as they are of an app that no longer exists.
+ * Other steps do not change the app fields steps read, its id, name and web URL, so entries are otherwise kept until they expire.
+ * A time to live of 0 turns caching off.
+ * <p/>
+ * Besides the instance-wide counts, lookups made for a build are counted by a {@link Lookups} action on the build,
+ * which steps report in its log.
+ *
+ * @author Ryan Brainard
+ */
+final class MetadataCache {
+
+    interface Loader<T> {
+        T load();
+    }
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries;
+    private long ttlNanos;
+    private long hits;
+    private long misses;
+
+    MetadataCache(final int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MetadataCache.this.maxEntries;
+            }
+        };
+        setTtl(ttlMillis);
+    }
+
+    synchronized void setTtl(long ttlMillis) {
+        this.ttlNanos = Math.max(0, ttlMillis) * 1000000L;
+        if (ttlNanos == 0) {
+            entries.clear();
+        }
+    }
+
+    App getApp(String apiKey, String appName, Loader<App> loader) {
+        return getApp(apiKey, appName, loader, new Lookups());
+    }
+
+    App getApp(String apiKey, String appName, Loader<App> loader, Lookups lookups) {
+        return (App) get(appKey(apiKey, appName), appName, loader, lookups);
+    }
+
+    void putApp(String apiKey, App app) {
+        put(appKey(apiKey, app.getName()), app.getName(), app);
+    }
+
+    User getUserInfo(String apiKey, Loader<User> loader) {
+        return getUserInfo(apiKey, loader, new Lookups());
+    }
+
+    User getUserInfo(String apiKey, Loader<User> loader, Lookups lookups) {
+        return (User) get("user\n" + apiKey, null, loader, lookups);
+    }
+
+    /**
+     * Drops the app's metadata cached for any API key.
+     */
+    synchronized void invalidateApp(String appName) {
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+            if (appName.equals(i.next().appName)) {
+                i.remove();
+            }
+        }
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private Object get(String key, String appName, Loader<?> loader, Lookups lookups) {
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.loaded < ttlNanos) {
+                hits++;
+                lookups.hit();
+                return entry.value;
+            }
+            misses++;
+            lookups.miss();
+        }
+
+        // loaded without holding the lock, so a slow lookup does not hold up others
+        final Object value = loader.load();
+        if (value != null) {
+            put(key, appName, value);
+        }
+        return value;
+    }
+
+    private synchronized void put(String key, String appName, Object value) {
+        if (ttlNanos > 0) {
+            entries.put(key, new Entry(appName, value));
+        }
+    }
+
+    private static String appKey(String apiKey, String appName) {
+        return "app\n" + apiKey + "\n" + appName;
+    }
+
+    /**
+     * Counts of the metadata lookups made for a build, kept with the build so each step can report the build's hit rate so far.
+     */
+    static final class Lookups extends InvisibleAction {
+        private int hits;
+        private int misses;
+
+        /**
+         * @return lookups of the build, added to it on first use
+         */
+        static Lookups of(AbstractBuild build) {
+            synchronized (build) {
+                Lookups lookups = build.getAction(Lookups.class);
+                if (lookups == null) {
+                    lookups = new Lookups();
+                    build.addAction(lookups);
+                }
+                return lookups;
+            }
+        }
+
+        synchronized void hit() {
+            hits++;
+        }
+
+        synchronized void miss() {
+            misses++;
+        }
+
+        synchronized int getHits() {
+            return hits;
+        }
+
+        synchronized int getMisses() {
+            return misses;
+        }
+
+        synchronized String summary() {
+            final int lookups = hits + misses;
+            return "Heroku metadata cache: " + hits + " of " + lookups + " lookups in this build were hits" +
+                    (lookups == 0 ? "" : " (" + (hits * 100 / lookups) + "%)");
+        }
+    }
+
+    private static final class Entry {
+        final String appName;
+        final Object value;
+        final long loaded = System.nanoTime();
+
+        Entry(String appName, Object value) {
+            this.appName = appName;
+            this.value = value;
+        }
+    }
+}
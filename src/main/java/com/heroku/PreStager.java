@@ -0,0 +1,172 @@
+package com.heroku;
+
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Polls a directory in the background while a build runs and hashes new or changed files into its {@link DigestIndex},
+ * so that by the time the push step scans the directory most of its digests can be reused rather than computed.
+ * <p/>
+ * Anvil's diff and uploads happen inside janvil and cannot be started ahead of the push, so hashing is the part
+ * of the push done early.
+ * <p/>
+ * A file is only hashed once it has settled: unchanged since the previous poll, or not modified for a full poll interval.
+ * Files still being written by the build are left for the next poll or for the push itself.
+ * <p/>
+ * Stagers run on the node holding the workspace and are registered by directory,
+ * so the push step can stop the stager for its directory before scanning it.
+ *
+ * @author Ryan Brainard
+ */
+final class PreStager {
+
+    private static final Map<String, PreStager> running = new HashMap<String, PreStager>();
+
+    private final File dir;
+    private final File indexFile;
+    private final DirScanner scanner;
+    private final long pollMillis;
+    private final PrintStream logger;
+
+    private Map<String, String> lastSeen = new HashMap<String, String>();
+    private final Object lock = new Object();
+    private volatile boolean stopped;
+    private Thread thread;
+    private String lastFailure;
+
+    private int filesHashed;
+    private long bytesHashed;
+
+    PreStager(File dir, File indexFile, DirScanner scanner, long pollMillis, PrintStream logger) {
+        this.dir = dir;
+        this.indexFile = indexFile;
+        this.scanner = scanner;
+        this.pollMillis = pollMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * Starts staging in the background, replacing any stager already running for the same directory.
+     */
+    static void start(PreStager stager) throws IOException, InterruptedException {
+        final PreStager previous;
+        synchronized (running) {
+            previous = running.put(stager.dir.getCanonicalPath(), stager);
+        }
+        if (previous != null) {
+            previous.stop();
+        }
+
+        stager.thread = new Thread(new Runnable() {
+            public void run() {
+                stager.run();
+            }
+        }, "Heroku pre-stager for " + stager.dir);
+        stager.thread.setDaemon(true);
+        stager.thread.start();
+    }
+
+    /**
+     * Stops the stager for a directory, waiting for a poll in progress to finish,
+     * which costs the push nothing as it then reuses the digests.
+     *
+     * @return the stopped stager, or null if none was running for the directory
+     */
+    static PreStager stop(File dir) throws IOException, InterruptedException {
+        final PreStager stager;
+        synchronized (running) {
+            stager = running.remove(dir.getCanonicalPath());
+        }
+        if (stager != null) {
+            stager.stop();
+        }
+        return stager;
+    }
+
+    private void stop() throws InterruptedException {
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    private void run() {
+        while (!stopped) {
+            try {
+                poll();
+            } catch (IOException e) {
+                // the push hashes whatever is not staged, so failures are only reported once
+                final String failure = String.valueOf(e.getMessage());
+                if (!failure.equals(lastFailure)) {
+                    logger.println("Pre-staging failed, will retry: " + failure);
+                    lastFailure = failure;
+                }
+            }
+
+            synchronized (lock) {
+                if (!stopped) {
+                    try {
+                        lock.wait(pollMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans the directory once and hashes any settled files whose digests are not already in the index.
+     */
+    void poll() throws IOException {
+        final DigestIndex digestIndex = DigestIndex.load(indexFile);
+        final long settledBefore = System.currentTimeMillis() - pollMillis;
+        final Map<String, String> seen = new HashMap<String, String>();
+
+        scanner.scan(dir, new FileVisitor() {
+            @Override
+            public void visit(File f, String relativePath) throws IOException {
+                final String state = f.length() + ":" + f.lastModified();
+                seen.put(relativePath, state);
+                if (!state.equals(lastSeen.get(relativePath)) && f.lastModified() > settledBefore) {
+                    return;
+                }
+
+                final int computed = digestIndex.getComputed();
+                digestIndex.digest(f, relativePath);
+                if (digestIndex.getComputed() > computed) {
+                    synchronized (PreStager.this) {
+                        filesHashed++;
+                        bytesHashed += f.length();
+                    }
+                }
+            }
+        });
+        lastSeen = seen;
+
+        if (digestIndex.getComputed() > 0) {
+            digestIndex.save();
+        }
+    }
+
+    synchronized int getFilesHashed() {
+        return filesHashed;
+    }
+
+    synchronized long getBytesHashed() {
+        return bytesHashed;
+    }
+
+    synchronized String summary() {
+        return "Pre-staged " + filesHashed + " file digests (" + (bytesHashed / 1024) + " KB hashed) while the build ran";
+    }
+}
@@ -58,21 +58,40 @@ public class Promote extends AbstractHerokuBuildStep {
                         }
                     })));
 
-        final List<String> downstreams = janvil.downstreams(getSourceAppName());
+        final List<String> downstreams = new ServiceCall<List<String>>() {
+            List<String> call() {
+                return janvil.downstreams(getSourceAppName());
+            }
+        }.run();
         if (downstreams.isEmpty()) {
             listener.getLogger().println("Adding " + targetApp + " as downstream app...");
-            janvil.addDownstream(getSourceAppName(), getTargetAppName());
+            new ServiceCall<Void>() {
+                Void call() {
+                    janvil.addDownstream(getSourceAppName(), getTargetAppName());
+                    return null;
+                }
+            }.run();
         } else if (!downstreams.get(0).equals(getTargetAppName())) {
             listener.error(getSourceAppName() + " already has " + downstreams.get(0) + " configured as its downstream app");
             return false;
         }
 
         listener.getLogger().println("Promoting " + getSourceAppName() + " to " + targetApp.getName() + " ...");
-        janvil.promote(getSourceAppName());
+        new ServiceCall<Void>() {
+            Void call() {
+                janvil.promote(getSourceAppName());
+                return null;
+            }
+        }.run();
 
         return true;
     }
 
+    @Override
+    protected CircuitBreaker.Endpoint getServiceEndpoint() {
+        return CircuitBreaker.Endpoint.ANVIL;
+    }
+
     @Override
     public PromoteDescriptor getDescriptor() {
         return (PromoteDescriptor) super.getDescriptor();
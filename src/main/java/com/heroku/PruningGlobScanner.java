@@ -0,0 +1,307 @@
+package com.heroku;
+
+import hudson.Util;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Drop-in replacement for {@link DirScanner.Glob} that does not descend into directories that can never match.
+ * A directory is skipped when no include pattern can match anything below it, or when an exclude pattern
+ * ending in {@code **} (such as {@code .git/**} or {@code **}{@code /node_modules/**}) matches the directory itself.
+ * <p/>
+ * Patterns follow Ant syntax, are comma-separated, and, as with {@link DirScanner.Glob}, Ant's default excludes apply
+ * unless includes are null or empty and excludes are null. Compiled patterns are cached per pattern string.
+ * Files are visited in name order with the same relative paths {@link DirScanner.Glob} would pass.
+ *
+ * @author Ryan Brainard
+ */
+class PruningGlobScanner extends DirScanner {
+
+    private static final List<String> DEFAULT_EXCLUDES = Arrays.asList(
+            "**/*~", "**/#*#", "**/.#*", "**/%*%", "**/._*",
+            "**/CVS", "**/CVS/**", "**/.cvsignore",
+            "**/SCCS", "**/SCCS/**", "**/vssver.scc",
+            "**/.svn", "**/.svn/**",
+            "**/.git", "**/.git/**", "**/.gitattributes", "**/.gitignore", "**/.gitmodules",
+            "**/.hg", "**/.hg/**", "**/.hgignore", "**/.hgsub", "**/.hgsubstate", "**/.hgtags",
+            "**/.bzr", "**/.bzr/**", "**/.bzrignore",
+            "**/.DS_Store");
+
+    private static final ConcurrentMap<String, Pattern> compiledPatterns = new ConcurrentHashMap<String, Pattern>();
+
+    private final String includes;
+    private final String excludes;
+
+    private transient List<Pattern> includePatterns;
+    private transient List<Pattern> excludePatterns;
+
+    PruningGlobScanner(String includes, String excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    @Override
+    public void scan(File dir, FileVisitor visitor) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+
+        compile();
+        scan(dir, new String[0], visitor);
+    }
+
+    private void scan(File dir, String[] dirTokens, FileVisitor visitor) throws IOException {
+        final String[] names = list(dir);
+        if (names == null) {
+            return;
+        }
+        Arrays.sort(names);
+
+        for (String name : names) {
+            final File child = new File(dir, name);
+            final String[] tokens = Arrays.copyOf(dirTokens, dirTokens.length + 1);
+            tokens[dirTokens.length] = name;
+
+            if (child.isDirectory()) {
+                if (mayContainMatches(tokens)) {
+                    scan(child, tokens, visitor);
+                }
+            } else if (isIncluded(tokens) && !isExcluded(tokens)) {
+                visitor.visit(child, join(tokens));
+            }
+        }
+    }
+
+    /**
+     * Lists the names in a directory. Exposed for tests to observe which directories are walked.
+     */
+    String[] list(File dir) {
+        return dir.list();
+    }
+
+    private void compile() {
+        if (includePatterns != null) {
+            return;
+        }
+
+        final List<Pattern> compiledIncludes = compileAll(includes);
+        if (compiledIncludes.isEmpty()) {
+            compiledIncludes.add(compile("**"));
+        }
+
+        final List<Pattern> compiledExcludes = compileAll(excludes);
+        if (Util.fixEmpty(includes) != null || excludes != null) {
+            for (String defaultExclude : DEFAULT_EXCLUDES) {
+                compiledExcludes.add(compile(defaultExclude));
+            }
+        }
+
+        includePatterns = compiledIncludes;
+        excludePatterns = compiledExcludes;
+    }
+
+    private boolean mayContainMatches(String[] dirTokens) {
+        for (Pattern exclude : excludePatterns) {
+            if (exclude.excludesContentsOf(dirTokens)) {
+                return false;
+            }
+        }
+        for (Pattern include : includePatterns) {
+            if (include.matchesStartOf(dirTokens)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isIncluded(String[] tokens) {
+        for (Pattern include : includePatterns) {
+            if (include.matches(tokens)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isExcluded(String[] tokens) {
+        for (Pattern exclude : excludePatterns) {
+            if (exclude.matches(tokens)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern> compileAll(String patterns) {
+        final List<Pattern> compiled = new ArrayList<Pattern>();
+        if (patterns != null) {
+            final StringTokenizer tokens = new StringTokenizer(patterns, ",");
+            while (tokens.hasMoreTokens()) {
+                final String pattern = Util.fixEmptyAndTrim(tokens.nextToken());
+                if (pattern != null) {
+                    compiled.add(compile(pattern));
+                }
+            }
+        }
+        return compiled;
+    }
+
+    static Pattern compile(String pattern) {
+        Pattern compiled = compiledPatterns.get(pattern);
+        if (compiled == null) {
+            compiled = new Pattern(pattern);
+            final Pattern existing = compiledPatterns.putIfAbsent(pattern, compiled);
+            if (existing != null) {
+                compiled = existing;
+            }
+        }
+        return compiled;
+    }
+
+    private static String join(String[] tokens) {
+        final StringBuilder path = new StringBuilder();
+        for (int i = 0; i < tokens.length; i++) {
+            if (i > 0) {
+                path.append(File.separatorChar);
+            }
+            path.append(tokens[i]);
+        }
+        return path.toString();
+    }
+
+    /**
+     * A compiled Ant-style pattern, split into path segments.
+     */
+    static final class Pattern {
+        private static final String ANY_DIRS = "**";
+
+        private final String[] segments;
+
+        private Pattern(String pattern) {
+            String normalized = pattern.replace('\\', '/');
+            if (normalized.endsWith("/")) {
+                normalized += ANY_DIRS;
+            }
+
+            final List<String> parts = new ArrayList<String>();
+            Collections.addAll(parts, normalized.split("/+"));
+            parts.remove("");
+            // consecutive ** segments are equivalent to one
+            for (int i = parts.size() - 1; i > 0; i--) {
+                if (ANY_DIRS.equals(parts.get(i)) && ANY_DIRS.equals(parts.get(i - 1))) {
+                    parts.remove(i);
+                }
+            }
+            this.segments = parts.toArray(new String[parts.size()]);
+        }
+
+        boolean matches(String[] path) {
+            return matches(0, path, 0, path.length);
+        }
+
+        /**
+         * @return true if some path below the given directory could match this pattern
+         */
+        boolean matchesStartOf(String[] dir) {
+            for (int i = 0; i < dir.length; i++) {
+                if (i >= segments.length) {
+                    return false;
+                }
+                if (ANY_DIRS.equals(segments[i])) {
+                    return true;
+                }
+                if (!matchesSegment(segments[i], dir[i])) {
+                    return false;
+                }
+            }
+            return segments.length > dir.length;
+        }
+
+        /**
+         * @return true if this pattern ends in {@code **} and the rest of it matches the given directory,
+         * meaning everything below the directory is matched
+         */
+        boolean excludesContentsOf(String[] dir) {
+            return segments.length > 0
+                    && ANY_DIRS.equals(segments[segments.length - 1])
+                    && matches(0, dir, 0, dir.length, segments.length - 1);
+        }
+
+        private boolean matches(int segment, String[] path, int token, int pathLength) {
+            return matches(segment, path, token, pathLength, segments.length);
+        }
+
+        private boolean matches(int segment, String[] path, int token, int pathLength, int segmentsLength) {
+            while (segment < segmentsLength && token < pathLength) {
+                if (ANY_DIRS.equals(segments[segment])) {
+                    if (segment == segmentsLength - 1) {
+                        return true;
+                    }
+                    for (int skip = token; skip <= pathLength; skip++) {
+                        if (matches(segment + 1, path, skip, pathLength, segmentsLength)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                if (!matchesSegment(segments[segment], path[token])) {
+                    return false;
+                }
+                segment++;
+                token++;
+            }
+
+            if (token < pathLength) {
+                return false;
+            }
+            // path exhausted; only trailing ** segments may remain
+            for (; segment < segmentsLength; segment++) {
+                if (!ANY_DIRS.equals(segments[segment])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean matchesSegment(String pattern, String name) {
+            return matchesSegment(pattern, 0, name, 0);
+        }
+
+        private static boolean matchesSegment(String pattern, int p, String name, int n) {
+            while (p < pattern.length()) {
+                final char c = pattern.charAt(p);
+                if (c == '*') {
+                    // collapse runs of * and try every possible length
+                    while (p < pattern.length() && pattern.charAt(p) == '*') {
+                        p++;
+                    }
+                    if (p == pattern.length()) {
+                        return true;
+                    }
+                    for (int i = n; i <= name.length(); i++) {
+                        if (matchesSegment(pattern, p, name, i)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                if (n >= name.length() || (c != '?' && c != name.charAt(n))) {
+                    return false;
+                }
+                p++;
+                n++;
+            }
+            return n == name.length();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.heroku;
+
+import com.heroku.api.connection.Connection;
+import com.heroku.api.exception.RequestFailedException;
+
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps a Heroku API connection so that every request made through it first waits its turn with an {@link ApiRateLimiter}.
+ * Requests rejected for exceeding the rate limit are queued again instead of failing the build, up to a few times.
+ * Waits long enough to notice are noted in the build log, and can be counted by callers timing their requests.
+ *
+ * @author Ryan Brainard
+ */
+final class RateLimitedConnection implements InvocationHandler {
+
+    static final int TOO_MANY_REQUESTS = 429;
+
+    private static final int MAX_RETRIES = 5;
+    private static final long LOGGED_WAIT_NANOS = 100 * 1000000L;
+
+    private static final ThreadLocal<AtomicLong> countedWaits = new ThreadLocal<AtomicLong>();
+
+    private final Connection connection;
+    private final ApiRateLimiter limiter;
+    private final String owner;
+    private final PrintStream logger;
+
+    private RateLimitedConnection(Connection connection, ApiRateLimiter limiter, String owner, PrintStream logger) {
+        this.connection = connection;
+        this.limiter = limiter;
+        this.owner = owner;
+        this.logger = logger;
+    }
+
+    /**
+     * @param owner identifies the build the requests are made for, so builds are served fairly
+     */
+    static Connection wrap(Connection connection, ApiRateLimiter limiter, String owner, PrintStream logger) {
+        return (Connection) Proxy.newProxyInstance(RateLimitedConnection.class.getClassLoader(), new Class[]{Connection.class},
+                new RateLimitedConnection(connection, limiter, owner, logger));
+    }
+
+    /**
+     * Adds the time requests made by the current thread spend waiting for the rate limit to the given counter,
+     * until {@link #stopCountingWaits()}, so the time can be told apart from the time the requests themselves take.
+     */
+    static void countWaits(AtomicLong nanos) {
+        countedWaits.set(nanos);
+    }
+
+    static void stopCountingWaits() {
+        countedWaits.remove();
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (!method.getName().startsWith("execute")) {
+            return call(method, args);
+        }
+
+        // asynchronous requests are only scheduled here; their failures surface later, from their futures
+        final boolean retryable = method.getName().equals("execute");
+        for (int attempt = 0; ; attempt++) {
+            waitTurn();
+            try {
+                final Object result = call(method, args);
+                limiter.succeeded();
+                return result;
+            } catch (RequestFailedException e) {
+                if (!retryable || e.getStatusCode() != TOO_MANY_REQUESTS || attempt == MAX_RETRIES) {
+                    throw e;
+                }
+                limiter.throttled();
+                final long backoffMillis = limiter.isLimited() ? 0 : 1000L << attempt;
+                log("Heroku API rate limit reached, retrying" + (backoffMillis > 0 ? " in " + (backoffMillis / 1000) + " s" : "") + " ...");
+                sleep(backoffMillis);
+            }
+        }
+    }
+
+    private void waitTurn() {
+        final long waited;
+        try {
+            waited = limiter.acquire(owner);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HerokuJenkinsHandledException("Interrupted while waiting for Heroku API rate limit");
+        }
+        countWait(waited);
+        if (waited >= LOGGED_WAIT_NANOS) {
+            log(String.format("Waited %.1f s for Heroku API rate limit", waited / 1e9));
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+            countWait(millis * 1000000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HerokuJenkinsHandledException("Interrupted while waiting for Heroku API rate limit");
+        }
+    }
+
+    private static void countWait(long nanos) {
+        final AtomicLong counter = countedWaits.get();
+        if (counter != null) {
+            counter.addAndGet(nanos);
+        }
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void log(String message) {
+        if (logger != null) {
+            logger.println(message);
+        }
+    }
+}
@@ -15,7 +15,6 @@ import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
 
 /**
  * @author Ryan Brainard
@@ -56,17 +55,26 @@ public class Release extends AbstractHerokuBuildStep {
             return false;
         }
 
-        new Janvil(getEffectiveApiKey()).release(app.getName(), slugUrl, "Jenkins"); //TODO: what should the desc be?
+        new ServiceCall<Void>() {
+            Void call() {
+                new Janvil(getEffectiveApiKey()).release(app.getName(), slugUrl, "Jenkins"); //TODO: what should the desc be?
+                return null;
+            }
+        }.run();
 
 
-        final List<com.heroku.api.Release> releases = api.listReleases(app.getName());
-        final com.heroku.api.Release currentRelease = releases.get(releases.size() - 1);
+        final com.heroku.api.Release currentRelease = HerokuPlugin.get().getReleaseIndex().current(api, app.getName());
 
-        listener.getLogger().println("Release complete, " + currentRelease.getName() + " | " + app.getWebUrl());
+        listener.getLogger().println("Release complete, " + (currentRelease != null ? currentRelease.getName() + " | " : "") + app.getWebUrl());
 
         return true;
     }
 
+    @Override
+    protected CircuitBreaker.Endpoint getServiceEndpoint() {
+        return CircuitBreaker.Endpoint.ANVIL;
+    }
+
 
     @Override
     public ReleaseDescriptor getDescriptor() {
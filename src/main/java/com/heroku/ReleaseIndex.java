@@ -0,0 +1,167 @@
+package com.heroku;
+
+import com.heroku.api.HerokuAPI;
+import com.heroku.api.Release;
+import com.heroku.api.exception.RequestFailedException;
+
+import java.net.HttpURLConnection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recent release history of the apps build steps have worked with, so steps needing the current or previous release
+ * do not list every release of the app.
+ * <p/>
+ * An app's history is listed once, after which each lookup only fetches the app's current release. Releases between
+ * the latest one seen and the current one are fetched by version number only if a step asks for them.
+ * Only the most recent releases of each app are kept.
+ * <p/>
+ * Histories are kept by API key and app name, and listed again whenever the current release does not follow them,
+ * such as when the app was destroyed and created again outside of Jenkins.
+ *
+ * @author Ryan Brainard
+ */
+final class ReleaseIndex {
+
+    private static final Pattern VERSION = Pattern.compile("v(\\d+)");
+    private static final String CURRENT = "current";
+
+    private final int releasesPerApp;
+    private final Map<String, History> histories;
+
+    ReleaseIndex(final int maxApps, int releasesPerApp) {
+        this.releasesPerApp = releasesPerApp;
+        this.histories = new LinkedHashMap<String, History>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, History> eldest) {
+                return size() > maxApps;
+            }
+        };
+    }
+
+    /**
+     * @return the app's current release, or null if it has none
+     */
+    Release current(HerokuAPI api, String appName) {
+        return history(api.getApiKey(), appName).get(api, appName, 0);
+    }
+
+    /**
+     * @return the release before the app's current release, or null if it has none
+     */
+    Release previous(HerokuAPI api, String appName) {
+        return history(api.getApiKey(), appName).get(api, appName, 1);
+    }
+
+    /**
+     * Drops the app's history, such as when an app by that name is created and its versions start over.
+     */
+    synchronized void forget(String apiKey, String appName) {
+        histories.remove(apiKey + "\n" + appName);
+    }
+
+    private synchronized History history(String apiKey, String appName) {
+        final String key = apiKey + "\n" + appName;
+        History history = histories.get(key);
+        if (history == null) {
+            history = new History();
+            histories.put(key, history);
+        }
+        return history;
+    }
+
+    static int versionOf(Release release) {
+        final Matcher matcher = VERSION.matcher(release.getName());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    private final class History {
+        private final TreeMap<Integer, Release> releases = new TreeMap<Integer, Release>();
+
+        /**
+         * @param back how many releases before the current one
+         */
+        synchronized Release get(HerokuAPI api, String appName, int back) {
+            final Release current = fetch(api, appName, CURRENT);
+            if (current == null) {
+                releases.clear();
+                return null;
+            }
+
+            final int currentVersion = versionOf(current);
+            if (currentVersion < 0) {
+                // unexpected release naming, so go by list order without keeping anything
+                releases.clear();
+                final List<Release> all = api.listReleases(appName);
+                return back < all.size() ? all.get(all.size() - 1 - back) : null;
+            }
+            if (!follows(current, currentVersion)) {
+                releases.clear();
+                addAll(api.listReleases(appName), currentVersion);
+            }
+            add(currentVersion, current);
+
+            final int version = currentVersion - back;
+            if (version < 1) {
+                return null;
+            }
+            Release release = releases.get(version);
+            if (release == null) {
+                release = fetch(api, appName, "v" + version);
+                if (release != null) {
+                    add(version, release);
+                }
+            }
+            return release;
+        }
+
+        /**
+         * @return true if the current release is the latest one seen or newer than it
+         */
+        private boolean follows(Release current, int currentVersion) {
+            if (releases.isEmpty() || currentVersion < releases.lastKey()) {
+                return false;
+            }
+            final Release known = releases.get(currentVersion);
+            return known == null || same(known.getCommit(), current.getCommit());
+        }
+
+        private void addAll(List<Release> all, int upToVersion) {
+            for (int i = Math.max(0, all.size() - releasesPerApp); i < all.size(); i++) {
+                final int version = versionOf(all.get(i));
+                if (version > 0 && version <= upToVersion) {
+                    add(version, all.get(i));
+                }
+            }
+        }
+
+        private void add(int version, Release release) {
+            releases.put(version, release);
+            while (releases.size() > releasesPerApp) {
+                releases.pollFirstEntry();
+            }
+        }
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * @return the release, or null if the app has no such release
+     */
+    private static Release fetch(HerokuAPI api, String appName, String releaseName) {
+        try {
+            return api.getReleaseInfo(appName, releaseName);
+        } catch (RequestFailedException e) {
+            if (e.getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+}
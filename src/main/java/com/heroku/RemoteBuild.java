@@ -11,8 +11,6 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.remoting.VirtualChannel;
-import hudson.util.DirScanner;
-import hudson.util.FileVisitor;
 import hudson.util.FormValidation;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -37,15 +35,17 @@ public class RemoteBuild extends AbstractHerokuBuildStep {
     private String globIncludes;
     private String globExcludes;
     private final boolean useCache;
+    private final int hashParallelism;
 
     @DataBoundConstructor
-    public RemoteBuild(String buildpackUrl, String buildEnv, String globIncludes, String globExcludes, boolean useCache) {
+    public RemoteBuild(String buildpackUrl, String buildEnv, String globIncludes, String globExcludes, boolean useCache, int hashParallelism) {
         super();
         this.buildpackUrl = buildpackUrl;
         this.buildEnv = buildEnv;
         this.globIncludes = globIncludes;
         this.globExcludes = globExcludes;
         this.useCache = useCache;
+        this.hashParallelism = hashParallelism;
     }
 
     public String getBuildpackUrl() {
@@ -68,9 +68,14 @@ public class RemoteBuild extends AbstractHerokuBuildStep {
         return useCache;
     }
 
+    public int getHashParallelism() {
+        return hashParallelism;
+    }
+
     @Override
     public boolean perform(final AbstractBuild build, final Launcher launcher, final BuildListener listener, HerokuAPI api, App app) throws IOException, InterruptedException {
         final String userAgent = new JenkinsUserAgentValueProvider().getLocalUserAgent();
+        final String indexPath = DigestIndex.indexPath(build.getWorkspace(), null);
 
         final URL slugUrl = build.getWorkspace().act(new FilePath.FileCallable<URL>() {
 
@@ -108,15 +113,9 @@ public class RemoteBuild extends AbstractHerokuBuildStep {
                                             }
                                         })));
 
-                final Manifest manifest = new Manifest(workspace);  // TODO: allow for something other than workspace root?
-                new DirScanner.Glob(globIncludes, globExcludes).scan(workspace, new FileVisitor() {
-                    @Override
-                    public void visit(File f, String relativePath) throws IOException {
-                        if (f.isFile()) {
-                            manifest.add(f);
-                        }
-                    }
-                });
+                // TODO: allow for something other than workspace root?
+                final CompactManifest manifest = new ManifestBuilder(workspace, new File(indexPath), hashParallelism, listener.getLogger())
+                        .build(new PruningGlobScanner(globIncludes, globExcludes));
 
                 slugPushed[0] = false; //TODO: use exit code
 
@@ -128,7 +127,12 @@ public class RemoteBuild extends AbstractHerokuBuildStep {
                     e.setValue(jenkinsEnv.expand(e.getValue()));
                 }
 
-                final String slugUrl = janvil.build(manifest, buildEnvMap, buildpackUrl);
+                final Manifest janvilManifest = manifest.toManifest(workspace);
+                final String slugUrl = new ServiceCall<String>() {
+                    String call() throws IOException, InterruptedException {
+                        return janvil.build(janvilManifest, buildEnvMap, buildpackUrl);
+                    }
+                }.run();
 
                 //TODO: use exit code
                 if (!slugPushed[0]) {
@@ -142,6 +146,11 @@ public class RemoteBuild extends AbstractHerokuBuildStep {
         return true;
     }
 
+    @Override
+    protected CircuitBreaker.Endpoint getServiceEndpoint() {
+        return CircuitBreaker.Endpoint.ANVIL;
+    }
+
     private static String amt(Object qty, String counter) {
         final double num = Double.valueOf(String.valueOf(qty));
         final String s = qty + " " + counter;
@@ -205,6 +214,10 @@ public class RemoteBuild extends AbstractHerokuBuildStep {
         public FormValidation doCheckGlobExcludes(@AncestorInPath AbstractProject project, @QueryParameter String value) throws IOException {
             return FilePath.validateFileMask(project.getSomeWorkspace(), value);
         }
+
+        public FormValidation doCheckHashParallelism(@AncestorInPath AbstractProject project, @QueryParameter String value) throws IOException {
+            return ManifestBuilder.validateParallelism(value);
+        }
     }
 }
 
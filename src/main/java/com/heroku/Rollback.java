@@ -5,12 +5,12 @@ import com.heroku.api.HerokuAPI;
 import com.heroku.api.Release;
 import hudson.Extension;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.io.IOException;
-import java.util.List;
 
 /**
  * @author Ryan Brainard
@@ -36,19 +36,18 @@ public class Rollback extends AbstractHerokuBuildStep {
 
     @Override
     protected boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener, HerokuAPI api, App app) throws IOException, InterruptedException {
-        final List<Release> releases = api.listReleases(app.getName());
+        final ReleaseIndex releaseIndex = HerokuPlugin.get().getReleaseIndex();
+        final Release lastRelease = releaseIndex.previous(api, app.getName());
 
-        if (releases.size() < 2) {
+        if (lastRelease == null) {
             listener.error(app.getName() + " does not have a release to rollback.");
             return false;
         }
 
-        final Release lastRelease = releases.get(releases.size() - 2);
-
         listener.getLogger().println("Rolling back " + app.getName() + "...");
-        api.rollback(app.getName(), lastRelease.getName());
-        final List<Release> postRollbackReleases = api.listReleases(app.getName());
-        listener.getLogger().println("Done, " + postRollbackReleases.get(postRollbackReleases.size() - 1).getName());
+        // the response names the release rolled back to, so the current release need not be fetched again
+        final String rolledBackTo = Util.fixEmptyAndTrim(api.rollback(app.getName(), lastRelease.getName()));
+        listener.getLogger().println("Done, rolled back to " + (rolledBackTo != null ? rolledBackTo : lastRelease.getName()));
         return true;
     }
 
@@ -0,0 +1,319 @@
+package com.heroku;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs several commands as one-off processes at the same time, up to a limit, and sums up how each of them exited.
+ *
+ * @author Ryan Brainard
+ */
+final class RunBatch {
+
+    private static final Pattern RANGE = Pattern.compile("\\{(\\d+)\\.\\.(\\d+)\\}");
+    private static final int MAX_COMMANDS = 1000;
+    private static final int MAX_RANGE_DIGITS = 18;
+
+    /**
+     * Runs one command to completion.
+     */
+    interface Command {
+        /**
+         * @param run to be given the name of the process and its exit status, and to {@link Run#follow(Closeable)} its output
+         */
+        void run(Run run) throws Exception;
+    }
+
+    enum State {
+        WAITING,
+        RUNNING,
+        DONE,
+        ABANDONED
+    }
+
+    static final class Run {
+        final int index;
+        final String command;
+        volatile String process;
+        volatile Integer exitStatus;
+        private State state = State.WAITING;
+        private Closeable output;
+        private long millis;
+        private Throwable failure;
+        private boolean skipped;
+
+        Run(int index, String command) {
+            this.index = index;
+            this.command = command;
+        }
+
+        /**
+         * @param output closed if the batch stops following this command
+         * @return false if the batch already stopped following it, in which case the output has been closed
+         */
+        synchronized boolean follow(Closeable output) {
+            if (state == State.ABANDONED) {
+                close(output);
+                return false;
+            }
+            this.output = output;
+            return true;
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+
+        synchronized long getMillis() {
+            return millis;
+        }
+
+        synchronized boolean succeeded() {
+            return state == State.DONE && failure == null && exitStatus != null && exitStatus == 0;
+        }
+
+        synchronized String status() {
+            if (state == State.WAITING) {
+                return "not run";
+            } else if (state == State.ABANDONED) {
+                return "abandoned";
+            } else if (state == State.RUNNING) {
+                return "running";
+            } else if (failure != null) {
+                return "error: " + failure.getMessage();
+            } else if (exitStatus == null) {
+                return "unknown";
+            }
+            return "exit " + exitStatus;
+        }
+
+        private synchronized boolean start() {
+            if (skipped) {
+                return false;
+            }
+            state = State.RUNNING;
+            return true;
+        }
+
+        private synchronized void finish(long millis, Throwable failure) {
+            if (state == State.RUNNING) {
+                this.state = State.DONE;
+                this.millis = millis;
+                this.failure = failure;
+            }
+        }
+
+        /**
+         * Stops following the command if it is running, or keeps it from starting if it is not.
+         */
+        private synchronized void abandon() {
+            if (state == State.RUNNING) {
+                state = State.ABANDONED;
+                if (output != null) {
+                    close(output);
+                }
+            }
+            skipped = true;
+        }
+    }
+
+    /**
+     * Most commands run at the same time unless a step sets its own limit, as each takes a thread here and a dyno on Heroku.
+     */
+    static final int DEFAULT_CONCURRENCY = Math.max(1, Integer.getInteger("com.heroku.jenkins.run.concurrency", 4));
+
+    private final int concurrency;
+    private final boolean failFast;
+
+    /**
+     * @param concurrency most commands run at the same time, or 0 for {@link #DEFAULT_CONCURRENCY}
+     * @param failFast    true to stop starting commands, and following those running, once one fails
+     */
+    RunBatch(int concurrency, boolean failFast) {
+        this.concurrency = concurrency > 0 ? concurrency : DEFAULT_CONCURRENCY;
+        this.failFast = failFast;
+    }
+
+    /**
+     * Expands commands given one per line, each of which may contain ranges such as <code>{1..16}</code>
+     * to stand for one command for each number in the range. Numbers are padded to the width of the range's
+     * start if it has leading zeros, as in <code>{01..16}</code>.
+     * <p/>
+     * Only used for steps run as a batch, so that single commands keep their lines and any brace expansion for the shell.
+     */
+    static List<String> expand(String commands) {
+        final List<String> expanded = new ArrayList<String>();
+        for (String line : commands.split("\\r?\\n")) {
+            if (line.trim().length() > 0) {
+                expandRanges(line.trim(), expanded);
+            }
+        }
+        return expanded;
+    }
+
+    private static void expandRanges(String command, List<String> expanded) {
+        final Matcher range = RANGE.matcher(command);
+        if (!range.find()) {
+            if (expanded.size() == MAX_COMMANDS) {
+                throw new HerokuJenkinsHandledException("More than " + MAX_COMMANDS + " commands to run");
+            }
+            expanded.add(command);
+            return;
+        }
+
+        if (range.group(1).length() > MAX_RANGE_DIGITS || range.group(2).length() > MAX_RANGE_DIGITS) {
+            throw new HerokuJenkinsHandledException("Range " + range.group() + " is too large");
+        }
+        final long from = Long.parseLong(range.group(1));
+        final long to = Long.parseLong(range.group(2));
+        if (Math.abs(to - from) >= MAX_COMMANDS) {
+            throw new HerokuJenkinsHandledException("More than " + MAX_COMMANDS + " commands to run");
+        }
+        final String format = range.group(1).startsWith("0") ? "%0" + range.group(1).length() + "d" : "%d";
+        final int step = from <= to ? 1 : -1;
+        for (long i = from; ; i += step) {
+            expandRanges(command.substring(0, range.start()) + String.format(format, i) + command.substring(range.end()), expanded);
+            if (i == to) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the runs, in the order of the commands
+     */
+    List<Run> run(List<String> commands, final Command command, final PrintStream logger) throws InterruptedException {
+        final List<Run> runs = new ArrayList<Run>();
+        for (int i = 0; i < commands.size(); i++) {
+            runs.add(new Run(i + 1, commands.get(i)));
+        }
+        if (runs.isEmpty()) {
+            return runs;
+        }
+
+        final int threads = Math.min(concurrency, runs.size());
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "Heroku run batch " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final CompletionService<Run> completion = new ExecutorCompletionService<Run>(executor);
+        // set by the command failing, so no other command starts before the batch stops
+        final AtomicBoolean failed = new AtomicBoolean();
+        try {
+            for (final Run run : runs) {
+                completion.submit(new Callable<Run>() {
+                    public Run call() {
+                        if (Thread.currentThread().isInterrupted() || (failFast && failed.get()) || !run.start()) {
+                            return run;
+                        }
+                        final long start = System.nanoTime();
+                        Throwable failure = null;
+                        try {
+                            command.run(run);
+                        } catch (Throwable e) {
+                            failure = e;
+                        }
+                        run.finish((System.nanoTime() - start) / 1000000, failure);
+                        if (!run.succeeded()) {
+                            failed.set(true);
+                        }
+                        return run;
+                    }
+                });
+            }
+
+            for (int done = 0; done < runs.size(); done++) {
+                final Run run;
+                try {
+                    run = completion.take().get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+                if (failFast && run.getState() == State.DONE && !run.succeeded()) {
+                    logger.println("[" + label(run) + "] " + run.status() + ", stopping the other commands");
+                    break;
+                }
+            }
+        } finally {
+            // abandoned first, so runs interrupted by the shutdown are not taken to have ended by themselves
+            for (Run run : runs) {
+                run.abandon();
+            }
+            executor.shutdownNow();
+        }
+        return runs;
+    }
+
+    static String label(Run run) {
+        return run.process != null ? run.process : "#" + run.index;
+    }
+
+    /**
+     * Prints a table of how each command ended.
+     *
+     * @return true if all commands exited with status 0
+     */
+    static boolean summarize(List<Run> runs, PrintStream logger) {
+        int commandWidth = "Command".length();
+        int processWidth = "Process".length();
+        for (Run run : runs) {
+            commandWidth = Math.max(commandWidth, run.command.length());
+            processWidth = Math.max(processWidth, label(run).length());
+        }
+
+        final String row = "%-4s %-" + commandWidth + "s  %-" + processWidth + "s  %-12s %s";
+        final List<String> lines = new ArrayList<String>();
+        lines.add(String.format(row, "#", "Command", "Process", "Duration", "Status"));
+        boolean succeeded = true;
+        for (Run run : runs) {
+            lines.add(String.format(row, run.index, run.command, label(run),
+                    run.getState() == State.DONE ? duration(run.getMillis()) : "-", run.status()));
+            succeeded &= run.succeeded();
+        }
+
+        synchronized (logger) {
+            for (String line : lines) {
+                logger.println(line);
+            }
+        }
+        return succeeded;
+    }
+
+    static String duration(long millis) {
+        final long seconds = millis / 1000;
+        if (seconds < 60) {
+            return String.format("%.1fs", millis / 1000.0);
+        } else if (seconds < 3600) {
+            return String.format("%dm %02ds", seconds / 60, seconds % 60);
+        }
+        return String.format("%dh %02dm %02ds", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private static void close(Closeable output) {
+        try {
+            output.close();
+        } catch (IOException e) {
+            // no longer following it anyway
+        }
+    }
+}
@@ -8,14 +8,20 @@ import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
 import hudson.util.FormValidation;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
-import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author Ryan Brainard
@@ -23,17 +29,78 @@ import java.io.InputStream;
 public class RunProcess extends AbstractHerokuBuildStep {
 
     private final String command;
+    private final boolean batch;
+    private final boolean timestamps;
+    private final boolean detached;
+    private final int tailLines;
+    private final int concurrency;
+    private final boolean failFast;
+    private final boolean failOnExitStatus;
 
-    @DataBoundConstructor
     public RunProcess(String apiKey, String appName, String command) {
+        this(apiKey, appName, command, false, false, false, 0, 0, false, false);
+    }
+
+    @DataBoundConstructor
+    public RunProcess(String apiKey, String appName, String command, boolean batch, boolean timestamps, boolean detached, int tailLines,
+                      int concurrency, boolean failFast, boolean failOnExitStatus) {
         super(apiKey, appName);
         this.command = command;
+        this.batch = batch;
+        this.timestamps = timestamps;
+        this.detached = detached;
+        this.tailLines = Math.max(0, tailLines);
+        this.concurrency = Math.max(0, concurrency);
+        this.failFast = failFast;
+        this.failOnExitStatus = failOnExitStatus;
     }
 
     public String getCommand() {
         return command;
     }
 
+    /**
+     * @return true to run each line of the command as a command of its own, with ranges such as <code>{1..16}</code> expanded,
+     * rather than the command as it is
+     */
+    public boolean isBatch() {
+        return batch;
+    }
+
+    public boolean isTimestamps() {
+        return timestamps;
+    }
+
+    public boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * @return number of last lines of output shown in the build log, with all of it archived, or 0 to show all of it
+     */
+    public int getTailLines() {
+        return tailLines;
+    }
+
+    /**
+     * @return most commands run at the same time when there are several, or 0 for {@link RunBatch#DEFAULT_CONCURRENCY}
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * @return true to fail the build if a single command, run neither detached nor as a batch, exits with a status other than 0,
+     * which batches and detached commands always do
+     */
+    public boolean isFailOnExitStatus() {
+        return failOnExitStatus;
+    }
+
     // Overriding and delegating to parent because Jelly only looks at concrete class when rendering views
     @Override
     public String getAppName() {
@@ -48,27 +115,144 @@ public class RunProcess extends AbstractHerokuBuildStep {
 
     @Override
     protected boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener, HerokuAPI api, App app) throws IOException, InterruptedException {
-        final RunResponse runResponse = api.runAttached(app.getName(), command);
+        if (batch || detached) {
+            final List<String> commands = batch ? RunBatch.expand(command)
+                    : command != null && command.trim().length() > 0 ? Collections.singletonList(command) : Collections.<String>emptyList();
+            if (commands.isEmpty()) {
+                throw new HerokuJenkinsHandledException("No command to run");
+            }
+            return detached ? performDetached(build, listener, api, app, commands) : performBatch(build, listener, api, app, commands);
+        }
+
+        final RunResponse runResponse = api.runAttached(app.getName(), failOnExitStatus ? ExitStatusInputStream.wrap(command) : command);
+        final String process = runResponse.getProc().getProcess();
 
         listener.getLogger().println(
-                "Running `" + runResponse.getProc().getCommand() + "` on " + app.getName() + "... " +
-                runResponse.getProc().getState() + ", " + runResponse.getProc().getProcess());
+                "Running `" + (failOnExitStatus ? command : runResponse.getProc().getCommand()) + "` on " + app.getName() + "... " +
+                runResponse.getProc().getState() + ", " + process);
 
         InputStream runStream = null;
         try {
-            runStream = new BufferedInputStream(runResponse.attach());
-            int next;
-            while ((next = runStream.read()) != -1) {
-                listener.getLogger().write(next);
+            runStream = failOnExitStatus ? new ExitStatusInputStream(runResponse.attach()) : runResponse.attach();
+            if (tailLines > 0) {
+                final File artifact = artifact(build, process);
+                listener.getLogger().println("Archiving output as " + artifact.getName() + ", showing only its last " + tailLines + " lines ...");
+                printTail(spool(runStream, artifact), listener.getLogger());
+            } else {
+                new LineStreamer(listener.getLogger(), timestamps).copy(runStream);
             }
-
         } finally {
             if (runStream != null) runStream.close();
         }
 
+        return !failOnExitStatus || exited(command, process, ((ExitStatusInputStream) runStream).getExitStatus(), listener.getLogger());
+    }
+
+    private boolean performBatch(AbstractBuild build, BuildListener listener, final HerokuAPI api, final App app, List<String> commands) throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+        logger.println("Running " + commands.size() + " commands on " + app.getName() + ", " +
+                "up to " + (concurrency > 0 ? concurrency : RunBatch.DEFAULT_CONCURRENCY) + " at a time ...");
+
+        final File artifactsDir = build.getArtifactsDir();
+        final List<RunBatch.Run> runs = new RunBatch(concurrency, failFast).run(commands, new RunBatch.Command() {
+            public void run(RunBatch.Run run) throws IOException {
+                final RunResponse runResponse = api.runAttached(app.getName(), ExitStatusInputStream.wrap(run.command));
+                run.process = runResponse.getProc().getProcess();
+                logger.println("[" + run.process + "] Running `" + run.command + "`... " + runResponse.getProc().getState());
+
+                final ExitStatusInputStream output = new ExitStatusInputStream(runResponse.attach());
+                if (!run.follow(output)) {
+                    return;
+                }
+                try {
+                    if (tailLines > 0) {
+                        final SpooledOutput spooled = spool(output, artifact(artifactsDir, run.process));
+                        synchronized (logger) {
+                            logger.println("[" + run.process + "] last lines of `" + run.command + "`:");
+                            printTail(spooled, logger);
+                        }
+                    } else {
+                        new LineStreamer(logger, "[" + run.process + "] ", timestamps).copy(output);
+                    }
+                } finally {
+                    output.close();
+                }
+                run.exitStatus = output.getExitStatus();
+            }
+        }, logger);
+
+        return RunBatch.summarize(runs, logger);
+    }
+
+    private boolean performDetached(AbstractBuild build, BuildListener listener, HerokuAPI api, App app, List<String> commands) throws IOException {
+        for (String detachedCommand : commands) {
+            final RunResponse runResponse = api.runAttached(app.getName(), ExitStatusInputStream.wrap(detachedCommand));
+            final String process = runResponse.getProc().getProcess();
+
+            listener.getLogger().println(
+                    "Running `" + detachedCommand + "` on " + app.getName() + " without waiting for it... " +
+                    runResponse.getProc().getState() + ", " + process);
+
+            SpooledOutput spool = null;
+            if (tailLines > 0) {
+                final File artifact = artifact(build, process);
+                listener.getLogger().println("Archiving output of " + process + " as " + artifact.getName() + ", showing only its last " + tailLines + " lines ...");
+                spool = new SpooledOutput(artifact, tailLines);
+            }
+            final InputStream output;
+            try {
+                output = runResponse.attach();
+            } catch (RuntimeException e) {
+                if (spool != null) {
+                    spool.close();
+                }
+                throw e;
+            }
+            HerokuPlugin.get().getDetachedRunner().start(build, detachedCommand, process, output, listener.getLogger(), timestamps, spool);
+        }
         return true;
     }
 
+    private SpooledOutput spool(InputStream runStream, File artifact) throws IOException {
+        final SpooledOutput output = new SpooledOutput(artifact, tailLines);
+        try {
+            new LineStreamer(output, timestamps).copy(runStream);
+        } finally {
+            output.close();
+        }
+        return output;
+    }
+
+    /**
+     * Logs how a command exited, which is the same for a single command, each command of a batch and detached commands.
+     *
+     * @return true if it exited with status 0
+     */
+    static boolean exited(String command, String process, Integer exitStatus, PrintStream logger) {
+        if (exitStatus == null) {
+            logger.println("`" + command + "` (" + process + ") ended without reporting an exit status");
+            return false;
+        }
+        logger.println("`" + command + "` (" + process + ") exited with status " + exitStatus);
+        return exitStatus == 0;
+    }
+
+    static void printTail(SpooledOutput output, PrintStream logger) {
+        output.printTail(logger);
+        logger.println(String.format("%d lines (%.1f MB) of output, archived as %s (%.1f MB compressed)",
+                output.getLines(), output.getBytes() / 1048576.0, output.getFile().getName(), output.getFile().length() / 1048576.0));
+    }
+
+    private static File artifact(AbstractBuild build, String process) throws IOException {
+        return artifact(build.getArtifactsDir(), process);
+    }
+
+    private static File artifact(File artifactsDir, String process) throws IOException {
+        if (!artifactsDir.isDirectory() && !artifactsDir.mkdirs()) {
+            throw new IOException("Could not create " + artifactsDir);
+        }
+        return new File(artifactsDir, "heroku-" + process + ".log.gz");
+    }
 
     @Override
     public RunProcessDescriptor getDescriptor() {
@@ -85,5 +269,42 @@ public class RunProcess extends AbstractHerokuBuildStep {
         public FormValidation doCheckCommand(@AncestorInPath AbstractProject project, @QueryParameter String command) throws IOException {
             return FormValidation.validateRequired(command);
         }
+
+        public FormValidation doCheckTailLines(@QueryParameter String tailLines) {
+            return FormValidation.validateNonNegativeInteger(tailLines);
+        }
+
+        public FormValidation doCheckConcurrency(@QueryParameter String concurrency) {
+            return FormValidation.validateNonNegativeInteger(concurrency);
+        }
+    }
+
+    /**
+     * Waits for the processes a build ran without waiting for them, and fails the build unless all of them exited with status 0.
+     */
+    @Extension
+    public static final class DetachedProcessWaiter extends RunListener<AbstractBuild> {
+
+        public DetachedProcessWaiter() {
+            super(AbstractBuild.class);
+        }
+
+        @Override
+        public void onCompleted(AbstractBuild build, TaskListener listener) {
+            final DetachedRunner runner = HerokuPlugin.get().getDetachedRunner();
+            if (build.getResult() == Result.ABORTED) {
+                runner.abandon(build, listener.getLogger());
+                return;
+            }
+
+            try {
+                if (!runner.awaitAll(build, listener.getLogger())) {
+                    build.setResult(Result.FAILURE);
+                }
+            } catch (InterruptedException e) {
+                build.setResult(Result.ABORTED);
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 }
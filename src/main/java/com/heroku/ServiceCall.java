@@ -0,0 +1,51 @@
+package com.heroku;
+
+import com.heroku.api.exception.RequestFailedException;
+import com.sun.jersey.api.client.UniformInterfaceException;
+
+import java.io.IOException;
+
+/**
+ * A call a build step makes to a Heroku service other than the platform API, whose failures are told apart from
+ * failures of the step around it, such as reading the workspace or losing the agent, so that only the service's
+ * own failures count against its {@link CircuitBreaker}.
+ *
+ * @author Ryan Brainard
+ */
+abstract class ServiceCall<T> {
+
+    abstract T call() throws IOException, InterruptedException;
+
+    /**
+     * @throws ServiceCallException if the call failed on I/O or with an HTTP error
+     */
+    final T run() throws ServiceCallException, InterruptedException {
+        try {
+            return call();
+        } catch (IOException e) {
+            throw new ServiceCallException(e);
+        } catch (RuntimeException e) {
+            if (isServiceFailure(e)) {
+                throw new ServiceCallException(e);
+            }
+            // handled errors, failed builds of the app and bugs alike are not the service's failures
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the failure is an HTTP error response, or was caused by I/O, such as the HTTP clients'
+     * unchecked exceptions wrapping a lost connection
+     */
+    static boolean isServiceFailure(RuntimeException failure) {
+        if (failure instanceof RequestFailedException || failure instanceof UniformInterfaceException) {
+            return true;
+        }
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,27 @@
+package com.heroku;
+
+import java.io.IOException;
+
+/**
+ * Failure of a {@link ServiceCall}, which may have crossed the remoting channel from the agent making the call.
+ *
+ * @author Ryan Brainard
+ */
+final class ServiceCallException extends IOException {
+
+    ServiceCallException(Exception cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    /**
+     * @return true if the failure is, or was caused by, a failed service call
+     */
+    static boolean isCause(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof ServiceCallException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
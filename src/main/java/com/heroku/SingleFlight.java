@@ -0,0 +1,106 @@
+package com.heroku;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Lets identical calls made at the same time share one execution and its result.
+ * <p/>
+ * The first caller for a key runs the call; callers arriving with the same key while it runs wait for it
+ * and receive the same result, or the same exception. Once a call completes, the next caller runs it again,
+ * so nothing is cached beyond the duration of the call. Only calls without side effects should be made through this.
+ *
+ * @author Ryan Brainard
+ */
+final class SingleFlight {
+
+    interface Call<T> {
+        T call();
+    }
+
+    static final class Result<T> {
+        final T value;
+        final boolean shared;
+
+        Result(T value, boolean shared) {
+            this.value = value;
+            this.shared = shared;
+        }
+    }
+
+    private final Map<String, Flight> inFlight = new HashMap<String, Flight>();
+    private long shared;
+
+    <T> Result<T> execute(String key, Call<T> call) {
+        final Flight flight;
+        final boolean leader;
+        synchronized (this) {
+            final Flight existing = inFlight.get(key);
+            leader = existing == null;
+            if (leader) {
+                flight = new Flight();
+                inFlight.put(key, flight);
+            } else {
+                flight = existing;
+                shared++;
+            }
+        }
+
+        if (leader) {
+            try {
+                flight.value = call.call();
+            } catch (RuntimeException e) {
+                flight.failure = e;
+            } catch (Error e) {
+                flight.failure = e;
+            } finally {
+                synchronized (this) {
+                    inFlight.remove(key);
+                }
+                flight.done.countDown();
+            }
+        } else {
+            flight.await();
+        }
+
+        if (flight.failure instanceof RuntimeException) {
+            throw (RuntimeException) flight.failure;
+        } else if (flight.failure instanceof Error) {
+            throw (Error) flight.failure;
+        }
+
+        @SuppressWarnings("unchecked")
+        final T value = (T) flight.value;
+        return new Result<T>(value, !leader);
+    }
+
+    /**
+     * @return number of calls answered by another caller's execution
+     */
+    synchronized long getShared() {
+        return shared;
+    }
+
+    private static final class Flight {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Object value;
+        volatile Throwable failure;
+
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // the leader is bound to finish, and the API methods waiting here cannot throw InterruptedException
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
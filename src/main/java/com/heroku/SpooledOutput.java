@@ -0,0 +1,139 @@
+package com.heroku;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Process output compressed into a file, of which only the last lines are kept in memory for the build log.
+ * Memory use is bounded by the number of lines kept and {@link #MAX_LINE_BYTES}, however much output there is.
+ *
+ * @author Ryan Brainard
+ */
+final class SpooledOutput extends OutputStream {
+
+    static final int MAX_LINE_BYTES = 2 * 1024;
+
+    private final File file;
+    private final OutputStream compressed;
+    private final byte[][] tail;
+    private final int[] tailLengths;
+    private int nextLine;
+    private int lines;
+
+    private final byte[] line = new byte[MAX_LINE_BYTES];
+    private int lineLength;
+    private boolean lineTruncated;
+
+    private long bytes;
+
+    /**
+     * @param tailLines number of last lines kept in memory
+     */
+    SpooledOutput(File file, int tailLines) throws IOException {
+        this.file = file;
+        this.compressed = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024), 64 * 1024);
+        this.tail = new byte[Math.max(1, tailLines)][];
+        this.tailLengths = new int[tail.length];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        compressed.write(b, off, len);
+        bytes += len;
+
+        final int end = off + len;
+        int start = off;
+        while (start < end) {
+            int newline = start;
+            while (newline < end && b[newline] != '\n') {
+                newline++;
+            }
+            appendToLine(b, start, Math.min(newline + 1, end) - start);
+            if (newline < end) {
+                endLine();
+            }
+            start = newline + 1;
+        }
+    }
+
+    /**
+     * The file is only written to as needed; there is no point in flushing compressed output part way through.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        compressed.close();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return uncompressed bytes written
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return total number of lines, including the unfinished last line, if any
+     */
+    int getLines() {
+        return lines + (lineLength > 0 ? 1 : 0);
+    }
+
+    /**
+     * Prints the last lines kept, including any unfinished last line.
+     */
+    void printTail(PrintStream logger) {
+        final int kept = Math.min(lines, tail.length);
+        for (int i = 0; i < kept; i++) {
+            final int slot = (nextLine - kept + i + tail.length) % tail.length;
+            logger.write(tail[slot], 0, tailLengths[slot]);
+        }
+        if (lineLength > 0) {
+            logger.write(line, 0, lineLength);
+            logger.println();
+        }
+        logger.flush();
+    }
+
+    private void appendToLine(byte[] b, int off, int len) {
+        final int copied = Math.min(len, MAX_LINE_BYTES - lineLength);
+        System.arraycopy(b, off, line, lineLength, copied);
+        lineLength += copied;
+        lineTruncated |= copied < len;
+    }
+
+    private void endLine() {
+        if (lineTruncated) {
+            // keep the line ending
+            line[lineLength - 1] = '\n';
+        }
+        byte[] slot = tail[nextLine];
+        if (slot == null || slot.length < lineLength) {
+            slot = new byte[lineLength];
+            tail[nextLine] = slot;
+        }
+        System.arraycopy(line, 0, slot, 0, lineLength);
+        tailLengths[nextLine] = lineLength;
+        nextLine = (nextLine + 1) % tail.length;
+        lines++;
+        lineLength = 0;
+        lineTruncated = false;
+    }
+}
@@ -0,0 +1,61 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+
+/**
+ * @author Ryan Brainard
+ */
+public class AnvilPushScanTest extends TestCase {
+
+    private File dir;
+    private String indexPath;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("push-scan", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        indexPath = new File(dir.getPath() + "@tmp", "digests").getPath();
+        FileUtils.writeStringToFile(new File(dir, "Procfile"), "web: java -jar target/app.jar");
+        FileUtils.writeStringToFile(new File(dir, "target/app.jar"), "app");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        FileUtils.deleteDirectory(new File(indexPath).getParentFile());
+    }
+
+    public void testScanIsKeptForThePushToTakeOnce() throws Exception {
+        final AnvilPush.ScanCallable scan = new AnvilPush.ScanCallable("scan-1", new NullBuildListener(), "**/*", "", 1, indexPath);
+        assertEquals(Integer.valueOf(2), scan.invoke(dir, null));
+
+        final CompactManifest manifest = AnvilPush.takeScannedManifest("scan-1");
+        assertNotNull(manifest);
+        assertEquals(2, manifest.size());
+        assertNull("taken by the push", AnvilPush.takeScannedManifest("scan-1"));
+    }
+
+    public void testDroppedScanIsNotKept() throws Exception {
+        final AnvilPush.ScanCallable scan = new AnvilPush.ScanCallable("scan-2", new NullBuildListener(), "**/*", "", 1, indexPath);
+        scan.invoke(dir, null);
+
+        new AnvilPush.DropScanCallable("scan-2").invoke(dir, null);
+        assertNull(AnvilPush.takeScannedManifest("scan-2"));
+    }
+
+    public void testScanFinishingAfterItWasDroppedIsNotKept() throws Exception {
+        new AnvilPush.DropScanCallable("scan-3").invoke(dir, null);
+
+        final AnvilPush.ScanCallable scan = new AnvilPush.ScanCallable("scan-3", new NullBuildListener(), "**/*", "", 1, indexPath);
+        scan.invoke(dir, null);
+        assertNull(AnvilPush.takeScannedManifest("scan-3"));
+    }
+
+    public void testUnknownScanIsAbsent() throws Exception {
+        assertNull(AnvilPush.takeScannedManifest("never scanned"));
+    }
+}
@@ -18,7 +18,7 @@ public class AnvilPushTest extends BaseHerokuBuildStepTest {
                 project.scheduleBuild2(0).get();
                 project.getSomeWorkspace().child("Procfile").copyFrom(ClassLoader.getSystemResource("Procfile"));
 
-                project.getBuildersList().add(new AnvilPush(apiKey, app.getName(), "", "", "TEST", "", "", "", false));
+                project.getBuildersList().add(new AnvilPush(apiKey, app.getName(), "", "", "TEST", "", "", "", false, 1));
                 FreeStyleBuild build = project.scheduleBuild2(0).get();
 
                 String logs = FileUtils.readFileToString(build.getLogFile());
@@ -38,7 +38,7 @@ public class AnvilPushTest extends BaseHerokuBuildStepTest {
                 final BuildListener emptyBuildListener = new NullBuildListener();
 
                 final AnvilPush.RemoteCallable pushRemoteCallable =
-                        new AnvilPush(apiKey, app.getName(), "", "", "TEST", "", "", "", false)
+                        new AnvilPush(apiKey, app.getName(), "", "", "TEST", "", "", "", false, 1)
                                 .createRemoteCallable(build, emptyBuildListener, api, app);
 
                 final ByteArrayOutputStream serialization = new ByteArrayOutputStream();
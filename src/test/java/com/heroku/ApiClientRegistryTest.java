@@ -0,0 +1,127 @@
+package com.heroku;
+
+import com.heroku.api.HerokuAPI;
+import com.heroku.api.connection.Connection;
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ryan Brainard
+ */
+public class ApiClientRegistryTest extends TestCase {
+
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+
+    private final ApiClientRegistry.Connector connector = new ApiClientRegistry.Connector() {
+        public Connection open() {
+            opened.incrementAndGet();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class}, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("close".equals(method.getName())) {
+                        closed.incrementAndGet();
+                    }
+                    return null;
+                }
+            });
+        }
+    };
+
+    public void testClientsAreSharedPerKey() throws Exception {
+        final ApiClientRegistry registry = new ApiClientRegistry(16, 60000, connector);
+        final HerokuAPI a = registry.acquire("KEY A");
+        final HerokuAPI concurrent = registry.acquire("KEY A");
+        registry.release(a);
+        registry.release(concurrent);
+        final HerokuAPI later = registry.acquire("KEY A");
+        final HerokuAPI b = registry.acquire("KEY B");
+
+        assertSame(a, concurrent);
+        assertSame(a, later);
+        assertNotSame(a, b);
+        assertEquals(2, opened.get());
+        assertEquals(0, closed.get());
+    }
+
+    public void testIdleClientsAreClosed() throws Exception {
+        final ApiClientRegistry registry = new ApiClientRegistry(16, 0, connector);
+        registry.release(registry.acquire("KEY A"));
+        final HerokuAPI leased = registry.acquire("KEY B");
+        Thread.sleep(5);
+
+        registry.acquire("KEY C");
+        assertEquals("Idle client closed, leased client kept", 1, closed.get());
+        assertEquals(2, registry.size());
+        registry.release(leased);
+    }
+
+    public void testLeastRecentlyUsedIdleClientsBeyondMaxAreClosed() throws Exception {
+        final ApiClientRegistry registry = new ApiClientRegistry(2, 60000, connector);
+        final HerokuAPI a = registry.acquire("KEY A");
+        registry.release(registry.acquire("KEY B"));
+        registry.release(a);
+        registry.release(registry.acquire("KEY A"));
+        registry.release(registry.acquire("KEY C"));
+
+        assertEquals(2, registry.size());
+        assertEquals(1, closed.get());
+        assertSame("A was used more recently than B", a, registry.acquire("KEY A"));
+        assertEquals(3, opened.get());
+    }
+
+    public void testRetiredClientIsClosedAfterLastLease() throws Exception {
+        final ApiClientRegistry registry = new ApiClientRegistry(16, 60000, connector);
+        final HerokuAPI old = registry.acquire("OLD KEY");
+
+        registry.retire("OLD KEY");
+        assertEquals(0, closed.get());
+        assertNotSame("New leases get a new client", old, registry.acquire("OLD KEY"));
+
+        registry.release(old);
+        assertEquals(1, closed.get());
+    }
+
+    public void testRateLimitersGoWithTheirClients() throws Exception {
+        final ApiClientRegistry registry = new ApiClientRegistry(16, 0, connector);
+        registry.setRateLimit(2400);
+        final HerokuAPI a = registry.acquire("KEY A");
+        final HerokuAPI concurrent = registry.acquire("KEY A");
+        final ApiRateLimiter limiter = registry.getRateLimiter(a);
+        assertSame("Shared by leases of the same key", limiter, registry.getRateLimiter(concurrent));
+        assertEquals(2400, limiter.getCurrentRate());
+
+        registry.retire("KEY A");
+        registry.setRateLimit(1200);
+        assertEquals("Still set while retired clients are leased", 1200, registry.getRateLimiter(a).getCurrentRate());
+        registry.release(a);
+        registry.release(concurrent);
+
+        final HerokuAPI b = registry.acquire("KEY A");
+        assertNotSame(limiter, registry.getRateLimiter(b));
+        registry.release(b);
+        Thread.sleep(5);
+        registry.release(registry.acquire("KEY B"));
+        try {
+            registry.getRateLimiter(b);
+            fail("Idle client and its limiter evicted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testCloseReleasesEverything() throws Exception {
+        final ApiClientRegistry registry = new ApiClientRegistry(16, 60000, connector);
+        registry.release(registry.acquire("KEY A"));
+        final HerokuAPI leased = registry.acquire("KEY B");
+
+        registry.close();
+        assertEquals(0, registry.size());
+        assertEquals(1, closed.get());
+        registry.release(leased);
+        assertEquals(2, closed.get());
+    }
+}
@@ -0,0 +1,95 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Ryan Brainard
+ */
+public class ApiRateLimiterTest extends TestCase {
+
+    private static final int TEN_PER_SECOND = 36000;
+
+    public void testUnlimitedNeverWaits() throws Exception {
+        final ApiRateLimiter limiter = new ApiRateLimiter(0);
+        for (int i = 0; i < 10000; i++) {
+            limiter.acquire("build #1");
+        }
+        assertEquals(0, limiter.getQueued());
+    }
+
+    public void testCallsBeyondBurstWaitForTokens() throws Exception {
+        final ApiRateLimiter limiter = new ApiRateLimiter(TEN_PER_SECOND);
+        drain(limiter);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire("build #1");
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        assertTrue("took " + seconds + " s", seconds >= 0.4 && seconds < 2);
+    }
+
+    public void testWaitingBuildsAreServedInTurn() throws Exception {
+        final ApiRateLimiter limiter = new ApiRateLimiter(TEN_PER_SECOND);
+        drain(limiter);
+
+        final List<String> served = Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(caller(limiter, "busy build", served));
+            while (limiter.getQueued() < i + 1) {
+                Thread.sleep(1);
+            }
+        }
+        threads.add(caller(limiter, "other build", served));
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(5, served.size());
+        assertTrue(served.toString(), served.indexOf("other build") <= 1);
+    }
+
+    public void testThrottlingHalvesRateUntilCallsSucceed() throws Exception {
+        final ApiRateLimiter limiter = new ApiRateLimiter(3200);
+        limiter.throttled();
+        assertEquals(1600, limiter.getCurrentRate());
+        limiter.throttled();
+        assertEquals(800, limiter.getCurrentRate());
+        for (int i = 0; i < 100; i++) {
+            limiter.throttled();
+        }
+        assertEquals(200, limiter.getCurrentRate());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.succeeded();
+        }
+        assertEquals(3200, limiter.getCurrentRate());
+    }
+
+    private static void drain(ApiRateLimiter limiter) throws InterruptedException {
+        for (int i = 0; i < TEN_PER_SECOND / 60; i++) {
+            limiter.acquire("drain");
+        }
+    }
+
+    private static Thread caller(final ApiRateLimiter limiter, final String owner, final List<String> served) {
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire(owner);
+                    served.add(owner);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,156 @@
+package com.heroku;
+
+import com.heroku.api.exception.RequestFailedException;
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ryan Brainard
+ */
+public class ApiReadPolicyTest extends TestCase {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    public void testServerErrorsAreRetried() throws Exception {
+        final ApiReadPolicy policy = new ApiReadPolicy(3, 0);
+        assertEquals("app", policy.read("getApp", failing(2, 503), null, null));
+        assertEquals(3, calls.get());
+    }
+
+    public void testRetriesAreLimited() throws Exception {
+        final ApiReadPolicy policy = new ApiReadPolicy(1, 0);
+        try {
+            policy.read("getApp", failing(5, 502), null, null);
+            fail();
+        } catch (RequestFailedException e) {
+            assertEquals(502, e.getStatusCode());
+        }
+        assertEquals(2, calls.get());
+    }
+
+    public void testClientErrorsAreNotRetried() throws Exception {
+        final ApiReadPolicy policy = new ApiReadPolicy(3, 0);
+        try {
+            policy.read("getApp", failing(1, 404), null, null);
+            fail();
+        } catch (RequestFailedException e) {
+            assertEquals(404, e.getStatusCode());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    public void testBackoffIsJitteredBelowGrowingCap() throws Exception {
+        final ApiReadPolicy policy = new ApiReadPolicy(3, 0);
+        long previous = -1;
+        boolean varies = false;
+        for (int i = 0; i < 50; i++) {
+            final long first = policy.backoffMillis(0);
+            assertTrue(first >= 1 && first <= 201);
+            assertTrue(policy.backoffMillis(20) <= 10001);
+            varies |= previous >= 0 && previous != first;
+            previous = first;
+        }
+        assertTrue(varies);
+    }
+
+    public void testNoHedgingUntilEnoughLatenciesAreKnown() throws Exception {
+        final ApiReadPolicy policy = new ApiReadPolicy(0, 95);
+        assertEquals(-1, policy.hedgeDelayMillis("getApp"));
+        for (int i = 0; i < 19; i++) {
+            policy.recordLatency("getApp", 100);
+        }
+        assertEquals(-1, policy.hedgeDelayMillis("getApp"));
+
+        policy.recordLatency("getApp", 100);
+        assertEquals(100, policy.hedgeDelayMillis("getApp"));
+        assertEquals(-1, policy.hedgeDelayMillis("listReleases"));
+    }
+
+    public void testSlowReadIsHedgedAndFirstAnswerUsed() throws Exception {
+        final ApiReadPolicy policy = new ApiReadPolicy(0, 90);
+        for (int i = 0; i < 100; i++) {
+            policy.recordLatency("getApp", 50);
+        }
+
+        final long start = System.nanoTime();
+        final String result = policy.read("getApp", new SingleFlight.Call<String>() {
+            public String call() {
+                if (calls.incrementAndGet() == 1) {
+                    sleep(5000);
+                    return "slow";
+                }
+                return "fast";
+            }
+        }, null, null);
+        assertEquals("fast", result);
+        assertEquals(2, calls.get());
+        assertTrue((System.nanoTime() - start) / 1000000 < 2000);
+        policy.shutdown();
+    }
+
+    public void testNoHedgingWhileRequestsQueueForRateLimit() throws Exception {
+        final ApiReadPolicy policy = new ApiReadPolicy(0, 90);
+        for (int i = 0; i < 100; i++) {
+            policy.recordLatency("getApp", 50);
+        }
+        final ApiRateLimiter limiter = new ApiRateLimiter(1);
+        limiter.acquire("build #1");
+        final Thread queued = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire("build #2");
+                } catch (InterruptedException e) {
+                    // gave up waiting
+                }
+            }
+        };
+        queued.start();
+        while (limiter.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+
+        try {
+            assertEquals("slow", policy.read("getApp", new SingleFlight.Call<String>() {
+                public String call() {
+                    calls.incrementAndGet();
+                    sleep(300);
+                    return "slow";
+                }
+            }, limiter, null));
+            assertEquals(1, calls.get());
+        } finally {
+            queued.interrupt();
+            queued.join();
+            policy.shutdown();
+        }
+    }
+
+    public void testHedgingIsDisabledAtZero() throws Exception {
+        final ApiReadPolicy policy = new ApiReadPolicy(0, 0);
+        for (int i = 0; i < 100; i++) {
+            policy.recordLatency("getApp", 50);
+        }
+        assertEquals(-1, policy.hedgeDelayMillis("getApp"));
+    }
+
+    private SingleFlight.Call<String> failing(final int failures, final int statusCode) {
+        return new SingleFlight.Call<String>() {
+            public String call() {
+                if (calls.incrementAndGet() <= failures) {
+                    throw new RequestFailedException("Failed", statusCode, new byte[0]);
+                }
+                return "app";
+            }
+        };
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // cancelled after the hedged read answered
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Ryan Brainard
+ */
+public class CircuitBreakerTest extends TestCase {
+
+    private static final long FAST = 1000000L;
+
+    public void testOpensAtFailureRateOnceEnoughCallsAreKnown() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker("Heroku API", 50, 1000, 60000);
+        for (int i = 0; i < 4; i++) {
+            call(breaker, true);
+        }
+        assertEquals("too few calls to judge", CircuitBreaker.State.CLOSED, breaker.getState());
+
+        for (int i = 0; i < 5; i++) {
+            call(breaker, false);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    public void testSlowCallsCountAsFailures() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker("Heroku API", 50, 1000, 60000);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.record(false, 2000 * FAST);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    public void testLatencyIgnoredWithoutSlowCallThreshold() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker("Anvil build service", 50, 0, 60000);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.record(false, 600000 * FAST);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testOldOutcomesLeaveTheWindow() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker("Heroku API", 50, 1000, 60000);
+        for (int i = 0; i < 11; i++) {
+            call(breaker, false);
+        }
+        for (int i = 0; i < 9; i++) {
+            call(breaker, true);
+        }
+        for (int i = 0; i < 20; i++) {
+            call(breaker, false);
+        }
+        for (int i = 0; i < 9; i++) {
+            call(breaker, true);
+        }
+        assertEquals("9 of the last 20 failed", CircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    public void testSingleProbeAfterOpenPeriodClosesOnSuccess() throws Exception {
+        final CircuitBreaker breaker = tripped(20);
+        breaker.failFastIfOpen();
+        assertTrue("probe", breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse("only one probe at a time", breaker.tryAcquire());
+        try {
+            breaker.failFastIfOpen();
+            fail();
+        } catch (HerokuJenkinsHandledException expected) {
+        }
+
+        breaker.record(false, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    public void testFailedProbeReopens() throws Exception {
+        final CircuitBreaker breaker = tripped(20);
+        assertTrue(breaker.tryAcquire());
+        breaker.record(true, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            breaker.acquire();
+            fail();
+        } catch (HerokuJenkinsHandledException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Heroku API is failing or slow"));
+        }
+    }
+
+    private static CircuitBreaker tripped(long openMillis) throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker("Heroku API", 50, 1000, openMillis);
+        for (int i = 0; i < 10; i++) {
+            call(breaker, true);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(openMillis * 2);
+        return breaker;
+    }
+
+    private static void call(CircuitBreaker breaker, boolean failure) {
+        assertTrue(breaker.tryAcquire());
+        breaker.record(failure, FAST);
+    }
+}
@@ -0,0 +1,71 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Ryan Brainard
+ */
+public class CompactManifestTest extends TestCase {
+
+    public void testEntriesRoundTripInOrder() throws Exception {
+        roundTrip(new CompactManifest(false));
+    }
+
+    public void testEntriesRoundTripOffHeap() throws Exception {
+        roundTrip(new CompactManifest(true));
+    }
+
+    public void testSharedPrefixesAreStoredOnce() throws Exception {
+        final CompactManifest manifest = new CompactManifest(false);
+        final String prefix = "src/main/java/com/example/deeply/nested/package/";
+        for (int i = 0; i < 10000; i++) {
+            manifest.add(prefix + "File" + i + ".java", digest(i));
+        }
+
+        // 32 byte digests plus a few bytes of path suffix per entry, nowhere near the full path
+        assertTrue(manifest.memoryReport(0), manifest.footprintBytes() < 10000 * (CompactManifest.DIGEST_LENGTH + prefix.length()));
+    }
+
+    public void testRejectsWrongDigestLength() throws Exception {
+        try {
+            new CompactManifest(false).add("a", new byte[20]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private void roundTrip(CompactManifest manifest) throws IOException {
+        final List<String> paths = Arrays.asList("Procfile", "src/a.txt", "src/ab.txt", "src/b/\u00e9t\u00e9.txt", "src/b/c.txt", "z");
+        for (int i = 0; i < 3000; i++) {
+            manifest.add(paths.get(i % paths.size()), digest(i));
+        }
+        assertEquals(3000, manifest.size());
+
+        final List<String> visited = new ArrayList<String>();
+        manifest.visit(new CompactManifest.EntryVisitor() {
+            public void visit(String relativePath, byte[] digest) {
+                assertTrue(Arrays.equals(digest(visited.size()), digest));
+                visited.add(relativePath);
+            }
+        });
+
+        assertEquals(3000, visited.size());
+        for (int i = 0; i < visited.size(); i++) {
+            assertEquals(paths.get(i % paths.size()), visited.get(i));
+        }
+    }
+
+    private static byte[] digest(int seed) {
+        final byte[] digest = new byte[CompactManifest.DIGEST_LENGTH];
+        for (int i = 0; i < digest.length; i++) {
+            digest[i] = (byte) (seed * 31 + i);
+        }
+        return digest;
+    }
+}
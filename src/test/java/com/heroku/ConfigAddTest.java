@@ -5,6 +5,8 @@ import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import org.apache.commons.io.FileUtils;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,4 +33,59 @@ public class ConfigAddTest extends BaseHerokuBuildStepTest {
             }
         });
     }
+
+    public void testPerformSkipsReleaseWhenUnchanged() throws Exception {
+        runWithNewApp(new AppRunnable() {
+            public void run(App app) throws Exception {
+                api.addConfig(app.getName(), Collections.singletonMap("A", "a"));
+                final int releasesBefore = api.listReleases(app.getName()).size();
+
+                FreeStyleProject project = createFreeStyleProject();
+                project.getBuildersList().add(new ConfigAdd(apiKey, app.getName(), "A=a"));
+                FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+                String logs = FileUtils.readFileToString(build.getLogFile());
+                assertTrue(logs, logs.contains("already set, skipping release and restart"));
+                assertEquals(releasesBefore, api.listReleases(app.getName()).size());
+            }
+        });
+    }
+
+    public void testPerformDeferredInOneRelease() throws Exception {
+        runWithNewApp(new AppRunnable() {
+            public void run(App app) throws Exception {
+                final int releasesBefore = api.listReleases(app.getName()).size();
+
+                FreeStyleProject project = createFreeStyleProject();
+                project.getBuildersList().add(new ConfigAdd(apiKey, app.getName(), "A=a", null, true));
+                project.getBuildersList().add(new ConfigAdd(apiKey, app.getName(), "B=b;A=aa", null, true));
+                project.getBuildersList().add(new ConfigAdd(apiKey, app.getName(), "C=c", null, true));
+                project.scheduleBuild2(0).get();
+
+                final Map<String, String> configAfter = api.listConfig(app.getName());
+                assertEquals("aa", configAfter.get("A"));
+                assertEquals("b", configAfter.get("B"));
+                assertEquals("c", configAfter.get("C"));
+                assertEquals(releasesBefore + 1, api.listReleases(app.getName()).size());
+            }
+        });
+    }
+
+    public void testChanges() {
+        final Map<String, String> current = new HashMap<String, String>();
+        current.put("SAME", "1");
+        current.put("CHANGED", "old");
+        current.put("UNTOUCHED", "x");
+        final Map<String, String> wanted = new HashMap<String, String>();
+        wanted.put("SAME", "1");
+        wanted.put("CHANGED", "new");
+        wanted.put("ADDED", "2");
+
+        final Map<String, String> expected = new HashMap<String, String>();
+        expected.put("CHANGED", "new");
+        expected.put("ADDED", "2");
+        assertEquals(expected, ConfigAdd.changes(current, wanted));
+        assertTrue(ConfigAdd.changes(current, Collections.singletonMap("SAME", "1")).isEmpty());
+        assertEquals(Collections.singletonMap("UNSET", ""), ConfigAdd.changes(current, Collections.<String, String>singletonMap("UNSET", null)));
+    }
 }
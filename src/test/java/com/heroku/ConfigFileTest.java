@@ -0,0 +1,126 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Ryan Brainard
+ */
+public class ConfigFileTest extends TestCase {
+
+    public void testParseEnv() throws Exception {
+        final Map<String, String> configVars = ConfigFile.parseEnv(new StringReader(
+                "# generated\n" +
+                "\n" +
+                "DATABASE_URL=postgres://db/app\n" +
+                "export RAILS_ENV = production # set by the build\n" +
+                "EMPTY=\n" +
+                "SINGLE='literal \\n $HOME'\n" +
+                "DOUBLE=\"line one\\nline \\\"two\\\"\"\n" +
+                "MULTI=\"first\n" +
+                "second\"\n"), ".env");
+
+        assertEquals("postgres://db/app", configVars.get("DATABASE_URL"));
+        assertEquals("production", configVars.get("RAILS_ENV"));
+        assertEquals("", configVars.get("EMPTY"));
+        assertEquals("literal \\n $HOME", configVars.get("SINGLE"));
+        assertEquals("line one\nline \"two\"", configVars.get("DOUBLE"));
+        assertEquals("first\nsecond", configVars.get("MULTI"));
+        assertEquals(6, configVars.size());
+    }
+
+    public void testParseEnvReportsLine() throws Exception {
+        try {
+            ConfigFile.parseEnv(new StringReader("A=a\nnot a mapping\n"), ".env");
+            fail();
+        } catch (HerokuJenkinsHandledException e) {
+            assertEquals("Expected KEY=value on line 2 of .env", e.getMessage());
+        }
+
+        try {
+            ConfigFile.parseEnv(new StringReader("A=a\nB=\"open\n"), ".env");
+            fail();
+        } catch (HerokuJenkinsHandledException e) {
+            assertEquals("Unterminated quote on line 2 of .env", e.getMessage());
+        }
+    }
+
+    public void testReadPropertiesFromWorkspace() throws Exception {
+        final File workspace = File.createTempFile("workspace", "");
+        workspace.delete();
+        workspace.mkdirs();
+        final File file = new File(workspace, "config.properties");
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            out.write("A=a;b\nB : \\u00e9\n".getBytes("UTF-8"));
+            out.close();
+
+            final Map<String, String> configVars = new ConfigFile.ReadCallable("config.properties").invoke(workspace, null);
+            assertEquals("a;b", configVars.get("A"));
+            assertEquals("\u00e9", configVars.get("B"));
+        } finally {
+            file.delete();
+            workspace.delete();
+        }
+    }
+
+    public void testBatches() {
+        final Map<String, String> configVars = new HashMap<String, String>();
+        for (int i = 0; i < 10; i++) {
+            configVars.put("KEY_" + i, "0123456789");
+        }
+
+        // each is 5 + 10 + 6 = 21 bytes
+        final List<Map<String, String>> batches = ConfigAdd.batches(configVars, 50);
+        assertEquals(5, batches.size());
+        final Map<String, String> rejoined = new HashMap<String, String>();
+        for (Map<String, String> batch : batches) {
+            assertEquals(2, batch.size());
+            rejoined.putAll(batch);
+        }
+        assertEquals(configVars, rejoined);
+
+        assertEquals(1, ConfigAdd.batches(configVars, 1000).size());
+        assertEquals(1, ConfigAdd.batches(Collections.singletonMap("HUGE", "0123456789"), 5).size());
+        assertTrue(ConfigAdd.batches(Collections.<String, String>emptyMap(), 5).isEmpty());
+    }
+
+    public void testBatchesMeasureEncodedBytes() throws Exception {
+        final Map<String, String> configVars = new HashMap<String, String>();
+        for (int i = 0; i < 10; i++) {
+            // 5 chars, but 10 bytes in UTF-8
+            configVars.put("KEY_" + i, "\u00e9\u00e9\u00e9\u00e9\u00e9");
+        }
+
+        // each is 5 + 10 + 6 = 21 bytes
+        final List<Map<String, String>> batches = ConfigAdd.batches(configVars, 50);
+        assertEquals(5, batches.size());
+    }
+
+    public void testNullValuesAreSetEmpty() {
+        final Map<String, String> wanted = new HashMap<String, String>();
+        wanted.put("UNSET", null);
+        wanted.put("EMPTY", null);
+        final Map<String, String> current = Collections.singletonMap("EMPTY", "");
+
+        final Map<String, String> changes = ConfigAdd.changes(current, wanted);
+        assertEquals(Collections.singletonMap("UNSET", ""), changes);
+        assertEquals(1, ConfigAdd.batches(changes, ConfigAdd.MAX_REQUEST_BYTES).size());
+    }
+
+    public void testJsonBytes() throws Exception {
+        assertEquals(3, ConfigAdd.jsonBytes("abc"));
+        assertEquals("caf\u00e9".getBytes("UTF-8").length, ConfigAdd.jsonBytes("caf\u00e9"));
+        assertEquals("\u20ac".getBytes("UTF-8").length, ConfigAdd.jsonBytes("\u20ac"));
+        assertEquals("\ud83d\ude80".getBytes("UTF-8").length, ConfigAdd.jsonBytes("\ud83d\ude80"));
+        assertEquals(6, ConfigAdd.jsonBytes("a\"b\\"));
+        assertEquals(6, ConfigAdd.jsonBytes("\n"));
+    }
+}
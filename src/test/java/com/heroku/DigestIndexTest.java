@@ -0,0 +1,114 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+
+/**
+ * @author Ryan Brainard
+ */
+public class DigestIndexTest extends TestCase {
+
+    private File dir;
+    private File indexFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("digest-index", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        indexFile = new File(dir.getPath() + "@tmp", "digests");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        FileUtils.deleteDirectory(indexFile.getParentFile());
+    }
+
+    public void testUnchangedFilesReuseDigests() throws Exception {
+        final File a = write("a.txt", "hello");
+        final File b = write("b.txt", "world");
+
+        final DigestIndex first = DigestIndex.load(indexFile);
+        final String aDigest = DigestIndex.hex(first.digest(a, "a.txt"));
+        first.digest(b, "b.txt");
+        first.save();
+        assertTrue(indexFile.exists());
+        assertEquals("The index is kept out of the pushed directory", 2, dir.list().length);
+        assertEquals(0, first.getReused());
+        assertEquals(2, first.getComputed());
+        assertEquals("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824", aDigest);
+
+        FileUtils.writeStringToFile(b, "world!");
+        assertTrue(b.setLastModified(b.lastModified() + 2000));
+
+        final DigestIndex second = DigestIndex.load(indexFile);
+        assertEquals(aDigest, DigestIndex.hex(second.digest(a, "a.txt")));
+        assertEquals(DigestIndex.hex(DigestIndex.sha256(b)), DigestIndex.hex(second.digest(b, "b.txt")));
+        assertEquals(1, second.getReused());
+        assertEquals(1, second.getComputed());
+    }
+
+    public void testFilesModifiedAsTheIndexWasSavedAreHashedAgain() throws Exception {
+        final File a = write("a.txt", "hello");
+
+        final DigestIndex first = DigestIndex.load(indexFile);
+        first.digest(a, "a.txt");
+        first.save();
+
+        // rewritten at the same size within the same second as the index, as coarse mtimes cannot tell apart
+        final long savedAt = indexFile.lastModified();
+        FileUtils.writeStringToFile(a, "jello");
+        assertTrue(a.setLastModified(savedAt));
+
+        final DigestIndex second = DigestIndex.load(indexFile);
+        assertEquals(DigestIndex.hex(DigestIndex.sha256(a)), DigestIndex.hex(second.digest(a, "a.txt")));
+        assertEquals(0, second.getReused());
+        assertEquals(1, second.getComputed());
+        second.save();
+
+        // once the index is saved after the file's last change, its digest can be reused
+        assertTrue(indexFile.setLastModified(savedAt + 2000));
+        final DigestIndex third = DigestIndex.load(indexFile);
+        assertEquals(DigestIndex.hex(DigestIndex.sha256(a)), DigestIndex.hex(third.digest(a, "a.txt")));
+        assertEquals(1, third.getReused());
+    }
+
+    public void testEntriesSavedInScanOrderAreFound() throws Exception {
+        final String[] paths = {"web/app.js", "Procfile", "web.xml", "web-inf/lib.jar", "lib/a.jar"};
+        final CompactManifest manifest = new CompactManifest(false);
+        final DigestIndex first = DigestIndex.load(indexFile, manifest);
+        for (String path : paths) {
+            first.digest(write(path, path), path);
+        }
+        first.save();
+        assertEquals(paths.length, manifest.size());
+
+        final DigestIndex second = DigestIndex.load(indexFile);
+        for (String path : paths) {
+            assertEquals(DigestIndex.hex(DigestIndex.sha256(new File(dir, path))), DigestIndex.hex(second.digest(new File(dir, path), path)));
+        }
+        assertEquals(paths.length, second.getReused());
+        assertEquals(0, second.getComputed());
+        assertTrue(second.footprintBytes() > 0);
+    }
+
+    public void testCorruptIndexIsIgnored() throws Exception {
+        final File a = write("a.txt", "hello");
+        FileUtils.writeStringToFile(indexFile, "not an index");
+
+        final DigestIndex index = DigestIndex.load(indexFile);
+        index.digest(a, "a.txt");
+        assertEquals(1, index.getComputed());
+    }
+
+    private File write(String path, String content) throws Exception {
+        final File f = new File(dir, path);
+        FileUtils.writeStringToFile(f, content);
+        // well before any index saved by the test, so digests are not racily clean
+        assertTrue(f.setLastModified(System.currentTimeMillis() - 10000));
+        return f;
+    }
+}
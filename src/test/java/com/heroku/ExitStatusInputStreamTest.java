@@ -0,0 +1,92 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author Ryan Brainard
+ */
+public class ExitStatusInputStreamTest extends TestCase {
+
+    public void testWrap() {
+        assertEquals("(\nrake db:migrate\n)\necho heroku-command-exit-status $?", ExitStatusInputStream.wrap("rake db:migrate"));
+    }
+
+    public void testRemovesExitStatusLine() throws Exception {
+        final ExitStatusInputStream in = stream("Migrating...\r\ndone\r\nheroku-command-exit-status 0\r\n");
+        assertEquals("Migrating...\r\ndone\r\n", readAll(in));
+        assertEquals(Integer.valueOf(0), in.getExitStatus());
+    }
+
+    public void testNonZeroExitStatusAfterUnfinishedLine() throws Exception {
+        final ExitStatusInputStream in = stream("rake aborted!heroku-command-exit-status 1\r\n");
+        assertEquals("rake aborted!", readAll(in));
+        assertEquals(Integer.valueOf(1), in.getExitStatus());
+    }
+
+    public void testNoExitStatusIfConnectionLost() throws Exception {
+        final ExitStatusInputStream in = stream("Migrating...\r\n");
+        assertEquals("Migrating...\r\n", readAll(in));
+        assertNull(in.getExitStatus());
+    }
+
+    public void testKeepsMarkerMentionedInOutput() throws Exception {
+        final ExitStatusInputStream in = stream("echo heroku-command-exit-status $?\nok\nheroku-command-exit-status 3\n");
+        assertEquals("echo heroku-command-exit-status $?\nok\n", readAll(in));
+        assertEquals(Integer.valueOf(3), in.getExitStatus());
+    }
+
+    public void testPassesCompleteLinesWithoutWaitingForEnd() throws Exception {
+        final ExitStatusInputStream in = new ExitStatusInputStream(new InputStream() {
+            private final byte[] first = "line one\nline tw".getBytes();
+            private boolean read;
+
+            @Override
+            public int read() {
+                throw new AssertionError();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (read) {
+                    throw new AssertionError("Blocked waiting for more output");
+                }
+                read = true;
+                System.arraycopy(first, 0, b, off, first.length);
+                return first.length;
+            }
+        });
+
+        final byte[] buffer = new byte[100];
+        assertEquals("line one\n", new String(buffer, 0, in.read(buffer)));
+        assertEquals(0, in.available());
+    }
+
+    public void testLongUnfinishedLinePassesThrough() throws Exception {
+        final StringBuilder progress = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            progress.append('.');
+        }
+        final ExitStatusInputStream in = stream(progress + "heroku-command-exit-status 0\n");
+        assertEquals(progress.toString(), readAll(in));
+        assertEquals(Integer.valueOf(0), in.getExitStatus());
+    }
+
+    private static ExitStatusInputStream stream(String output) {
+        return new ExitStatusInputStream(new ByteArrayInputStream(output.getBytes()));
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1000];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,133 @@
+package com.heroku;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Compares copying process output a byte at a time, as {@link RunProcess} used to, against {@link LineStreamer},
+ * into a log that, like a remote build log, costs a fixed overhead per write call.
+ * Output is read from a local socket, written a line at a time as a process would, so reads block and
+ * {@link InputStream#available()} is mostly 0, as on the rendezvous socket of a one-off process.
+ * Not run as part of the test suite; run with:
+ * <pre>java -cp target/classes:target/test-classes com.heroku.LineStreamerBenchmark [megabytes] [write overhead in microseconds]</pre>
+ *
+ * @author Ryan Brainard
+ */
+public class LineStreamerBenchmark {
+
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        final int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        final long writeOverheadNanos = (args.length > 1 ? Long.parseLong(args[1]) : 1) * 1000;
+        final byte[] output = output(megabytes * 1024 * 1024);
+
+        System.out.println(String.format("%-12s %12s %12s %10s", "copy", "writes", "ms", "MB/s"));
+        for (int run = 0; run < RUNS; run++) {
+            final RemoteLog perByteLog = new RemoteLog(writeOverheadNanos);
+            Socket socket = process(output);
+            long start = System.nanoTime();
+            perByte(socket.getInputStream(), new PrintStream(perByteLog));
+            report("per-byte", perByteLog.writes, System.nanoTime() - start, output.length);
+            socket.close();
+
+            final RemoteLog streamedLog = new RemoteLog(writeOverheadNanos);
+            socket = process(output);
+            start = System.nanoTime();
+            new LineStreamer(new PrintStream(streamedLog), false).copy(socket.getInputStream());
+            report("streamed", streamedLog.writes, System.nanoTime() - start, output.length);
+            socket.close();
+
+            final RemoteLog timestampedLog = new RemoteLog(writeOverheadNanos);
+            socket = process(output);
+            start = System.nanoTime();
+            new LineStreamer(new PrintStream(timestampedLog), true).copy(socket.getInputStream());
+            report("timestamped", timestampedLog.writes, System.nanoTime() - start, output.length);
+            socket.close();
+        }
+    }
+
+    /**
+     * @return socket from which the output can be read, as it is written a line at a time on another thread
+     */
+    private static Socket process(final byte[] output) throws IOException {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("localhost"));
+        final Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final Socket socket = server.accept();
+                    final OutputStream out = socket.getOutputStream();
+                    int lineStart = 0;
+                    for (int i = 0; i < output.length; i++) {
+                        if (output[i] == '\n') {
+                            out.write(output, lineStart, i + 1 - lineStart);
+                            lineStart = i + 1;
+                        }
+                    }
+                    out.write(output, lineStart, output.length - lineStart);
+                    socket.close();
+                    server.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+        return new Socket(server.getInetAddress(), server.getLocalPort());
+    }
+
+    private static void perByte(InputStream in, PrintStream log) throws IOException {
+        final InputStream runStream = new BufferedInputStream(in);
+        int next;
+        while ((next = runStream.read()) != -1) {
+            log.write(next);
+        }
+    }
+
+    private static byte[] output(int size) {
+        final StringBuilder output = new StringBuilder(size);
+        for (int line = 0; output.length() < size; line++) {
+            output.append("== ").append(line).append(" AddIndexToUsers: migrating, -> 0.0021s\n");
+        }
+        return output.toString().getBytes();
+    }
+
+    private static void report(String copy, long writes, long nanos, int bytes) {
+        System.out.println(String.format("%-12s %12d %12d %10.1f", copy, writes, nanos / 1000000, bytes / 1048576.0 / (nanos / 1e9)));
+    }
+
+    private static final class RemoteLog extends OutputStream {
+        private final long overheadNanos;
+        long writes;
+
+        RemoteLog(long overheadNanos) {
+            this.overheadNanos = overheadNanos;
+        }
+
+        @Override
+        public void write(int b) {
+            call();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            call();
+        }
+
+        private void call() {
+            writes++;
+            final long until = System.nanoTime() + overheadNanos;
+            while (System.nanoTime() < until) {
+                // spin, as a channel round trip would block
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Ryan Brainard
+ */
+public class LineStreamerTest extends TestCase {
+
+    private final List<String> writes = Collections.synchronizedList(new ArrayList<String>());
+    private final OutputStream log = new OutputStream() {
+        @Override
+        public void write(int b) {
+            throw new AssertionError("Written a byte at a time");
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes.add(new String(b, off, len));
+        }
+    };
+
+    public void testCopiesEverythingInFewWrites() throws Exception {
+        final StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            output.append("migrating table ").append(i).append('\n');
+        }
+
+        final LineStreamer streamer = new LineStreamer(log, false, 16 * 1024, 60000);
+        assertEquals(output.length(), streamer.copy(new ByteArrayInputStream(output.toString().getBytes())));
+        assertEquals(output.toString(), joined());
+        assertEquals(10000, streamer.getLines());
+        assertTrue("writes: " + writes.size(), writes.size() < output.length() / (8 * 1024) + 2);
+    }
+
+    public void testWritesOnlyWholeLinesWhileOutputKeepsComing() throws Exception {
+        final LineStreamer streamer = new LineStreamer(log, false, 10, 60000);
+        streamer.copy(new ChunkedInputStream("first line\nsecond ", "line\nthird line\n", "partial"));
+
+        assertEquals("first line\n", writes.get(0));
+        assertEquals("second line\nthird line\n", writes.get(1));
+        assertEquals("partial", writes.get(2));
+    }
+
+    public void testWritesPartialLineWhenOutputPauses() throws Exception {
+        final LineStreamer streamer = new LineStreamer(log, false, 1024, 50);
+        final PipedOutputStream process = new PipedOutputStream();
+        final Thread copying = copying(streamer, new PipedInputStream(process));
+
+        process.write("Continue? [y/N] ".getBytes());
+        process.flush();
+        awaitWrites(1);
+        assertEquals("Continue? [y/N] ", writes.get(0));
+
+        process.write("y\n".getBytes());
+        process.close();
+        copying.join();
+        assertEquals("y\n", writes.get(1));
+    }
+
+    public void testTrickleOfLinesOverBlockingStreamIsWrittenOnDeadline() throws Exception {
+        final LineStreamer streamer = new LineStreamer(log, false, 16 * 1024, 200);
+        final PipedOutputStream process = new PipedOutputStream();
+        final Thread copying = copying(streamer, new PipedInputStream(process));
+
+        for (int i = 0; i < 100; i++) {
+            process.write(("line " + i + "\n").getBytes());
+            process.flush();
+            Thread.sleep(5);
+        }
+        process.close();
+        copying.join();
+
+        assertEquals(100, streamer.getLines());
+        assertTrue("writes: " + writes.size(), writes.size() <= 10);
+    }
+
+    public void testTimestampsEachLineOnce() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final LineStreamer streamer = new LineStreamer(out, true);
+        streamer.copy(new ChunkedInputStream("one\ntw", "o\n\nthree"));
+
+        final String[] lines = out.toString().split("\n", -1);
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].matches("\\[\\d\\d:\\d\\d:\\d\\d\\.\\d\\d\\d\\] one"));
+        assertTrue(lines[1], lines[1].matches("\\[\\d\\d:\\d\\d:\\d\\d\\.\\d\\d\\d\\] two"));
+        assertTrue(lines[2], lines[2].matches("\\[\\d\\d:\\d\\d:\\d\\d\\.\\d\\d\\d\\] "));
+        assertTrue(lines[3], lines[3].matches("\\[\\d\\d:\\d\\d:\\d\\d\\.\\d\\d\\d\\] three"));
+    }
+
+    private Thread copying(final LineStreamer streamer, final InputStream in) {
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    streamer.copy(in);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private void awaitWrites(int count) throws InterruptedException {
+        final long until = System.currentTimeMillis() + 5000;
+        while (writes.size() < count && System.currentTimeMillis() < until) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, writes.size());
+    }
+
+    private String joined() {
+        final StringBuilder joined = new StringBuilder();
+        for (String write : writes) {
+            joined.append(write);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Returns each chunk from a separate read, without blocking.
+     */
+    private static final class ChunkedInputStream extends InputStream {
+        private final String[] chunks;
+        private int next;
+
+        ChunkedInputStream(String... chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new AssertionError("Read a byte at a time");
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (next == chunks.length) {
+                return -1;
+            }
+            final byte[] chunk = chunks[next++].getBytes();
+            System.arraycopy(chunk, 0, b, off, chunk.length);
+            return chunk.length;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Ryan Brainard
+ */
+public class ManifestBuilderTest extends TestCase {
+
+    private File dir;
+    private File indexFile;
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("manifest-builder", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        indexFile = new File(dir.getPath() + "@tmp", "digests");
+        for (int i = 0; i < 100; i++) {
+            final File f = new File(dir, "src/pkg" + (i % 7) + "/File" + i + ".java");
+            FileUtils.writeStringToFile(f, "class File" + i + " {}");
+            assertTrue(f.setLastModified(System.currentTimeMillis() - 10000));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        FileUtils.deleteDirectory(indexFile.getParentFile());
+    }
+
+    public void testParallelHashingAddsFilesInScanOrder() throws Exception {
+        final List<String> serial = entries(builder(1).build(new PruningGlobScanner("**", "")));
+        assertEquals(100, serial.size());
+
+        assertTrue(indexFile.delete());
+        final List<String> parallel = entries(builder(2).build(new PruningGlobScanner("**", "")));
+        assertEquals(serial, parallel);
+    }
+
+    public void testDigestsAreReusedOnTheNextBuild() throws Exception {
+        builder(2).build(new PruningGlobScanner("**", ""));
+        log.reset();
+
+        builder(2).build(new PruningGlobScanner("**", ""));
+        assertTrue(log.toString(), log.toString().contains("Reused 100 file digests, computed 0"));
+        assertTrue(log.toString(), log.toString().contains("with the digest index and hashing"));
+    }
+
+    private ManifestBuilder builder(int parallelism) {
+        return new ManifestBuilder(dir, indexFile, parallelism, new PrintStream(log));
+    }
+
+    private static List<String> entries(CompactManifest manifest) throws IOException {
+        final List<String> entries = new ArrayList<String>();
+        manifest.visit(new CompactManifest.EntryVisitor() {
+            public void visit(String relativePath, byte[] digest) {
+                entries.add(relativePath + " " + DigestIndex.hex(digest));
+            }
+        });
+        return entries;
+    }
+}
@@ -0,0 +1,63 @@
+package com.heroku;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares retained heap of {@link CompactManifest} against holding a {@link File} and hex digest string per entry,
+ * which is what a scan retained before. Not run as part of the test suite; run with:
+ * <pre>java -cp target/classes:target/test-classes com.heroku.ManifestMemoryReport [numFiles]</pre>
+ *
+ * @author Ryan Brainard
+ */
+public class ManifestMemoryReport {
+
+    public static void main(String[] args) throws Exception {
+        final int numFiles = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final File baseDir = new File("/var/lib/jenkins/workspace/example-job");
+
+        final long before = usedHeap();
+        final List<Object> baseline = new ArrayList<Object>(numFiles * 2);
+        for (int i = 0; i < numFiles; i++) {
+            baseline.add(new File(baseDir, path(i)));
+            baseline.add(DigestIndex.hex(digest(i)));
+        }
+        final long baselineBytes = usedHeap() - before;
+        report("File + hex digest", baselineBytes, numFiles);
+        baseline.clear();
+
+        final long beforeCompact = usedHeap();
+        final CompactManifest compact = new CompactManifest(false);
+        for (int i = 0; i < numFiles; i++) {
+            compact.add(path(i), digest(i));
+        }
+        report("CompactManifest (measured)", usedHeap() - beforeCompact, numFiles);
+        report("CompactManifest (buffers)", compact.footprintBytes(), numFiles);
+    }
+
+    private static String path(int i) {
+        return "modules/module-" + (i / 1000) + "/src/main/java/com/example/pkg" + (i / 100) + "/Source" + i + ".java";
+    }
+
+    private static byte[] digest(int i) {
+        final byte[] digest = new byte[CompactManifest.DIGEST_LENGTH];
+        for (int b = 0; b < digest.length; b++) {
+            digest[b] = (byte) (i * 131 + b * 7);
+        }
+        return digest;
+    }
+
+    private static void report(String label, long bytes, int numFiles) {
+        System.out.println(String.format("%-28s %,12d bytes total  %,10d bytes per 10k files", label, bytes, bytes * 10000L / numFiles));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,87 @@
+package com.heroku;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Compares parsing config vars by loading them as {@link Properties}, as {@link MappingConverter} used to,
+ * against its single-pass parser, both without and with its cache of recent results.
+ * Not run as part of the test suite; run with:
+ * <pre>java -cp target/classes:target/test-classes com.heroku.MappingConverterBenchmark [numEntries...]</pre>
+ *
+ * @author Ryan Brainard
+ */
+public class MappingConverterBenchmark {
+
+    private static final int RUNS = 5;
+    private static final int ITERATIONS = 200;
+
+    public static void main(String[] args) throws Exception {
+        final String[] sizes = args.length > 0 ? args : new String[]{"100", "1000", "5000"};
+        System.out.println(String.format("%10s %-12s %14s", "entries", "parser", "us/convert"));
+        for (String size : sizes) {
+            run(Integer.parseInt(size));
+        }
+    }
+
+    private static void run(int numEntries) throws Exception {
+        final String mappings = mappings(numEntries);
+
+        long propertiesNanos = Long.MAX_VALUE;
+        long singlePassNanos = Long.MAX_VALUE;
+        long cachedNanos = Long.MAX_VALUE;
+        int sink = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += properties(mappings).size();
+            }
+            propertiesNanos = Math.min(propertiesNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                MappingConverter.clearCache();
+                sink += MappingConverter.convert(mappings).size();
+            }
+            singlePassNanos = Math.min(singlePassNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += MappingConverter.convert(mappings).size();
+            }
+            cachedNanos = Math.min(cachedNanos, System.nanoTime() - start);
+        }
+
+        if (sink != numEntries * ITERATIONS * RUNS * 3) {
+            throw new AssertionError("Parsers disagree");
+        }
+        report(numEntries, "properties", propertiesNanos);
+        report(numEntries, "single-pass", singlePassNanos);
+        report(numEntries, "cached", cachedNanos);
+    }
+
+    private static Map<String, String> properties(String mappings) throws Exception {
+        final Properties props = new Properties();
+        props.load(new StringReader(mappings.replaceAll(";", "\n")));
+        final Map<String, String> propsMap = new HashMap<String, String>();
+        for (Map.Entry<Object, Object> prop : props.entrySet()) {
+            propsMap.put(prop.getKey().toString(), prop.getValue().toString());
+        }
+        return propsMap;
+    }
+
+    private static String mappings(int numEntries) {
+        final StringBuilder mappings = new StringBuilder();
+        for (int i = 0; i < numEntries; i++) {
+            mappings.append("FEATURE_FLAG_").append(i).append('=').append("enabled for cohort ").append(i % 17);
+            mappings.append(i % 2 == 0 ? ';' : '\n');
+        }
+        return mappings.toString();
+    }
+
+    private static void report(int numEntries, String parser, long nanos) {
+        System.out.println(String.format("%10d %-12s %14.1f", numEntries, parser, nanos / 1000.0 / ITERATIONS));
+    }
+}
@@ -0,0 +1,103 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * @author Ryan Brainard
+ */
+public class MappingConverterTest extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        MappingConverter.clearCache();
+    }
+
+    public void testSemicolonsAndNewlinesSeparateMappings() {
+        final Map<String, String> expected = new HashMap<String, String>();
+        expected.put("A", "a");
+        expected.put("B", "b c");
+        expected.put("C", "");
+        assertEquals(expected, MappingConverter.convert("A=a;B = b c\nC"));
+    }
+
+    public void testNull() {
+        assertTrue(MappingConverter.convert(null).isEmpty());
+    }
+
+    public void testPropertiesSyntax() {
+        final Map<String, String> mappings = MappingConverter.convert(
+                "# comment;! also comment\n" +
+                "  KEY:value\\\n" +
+                "    continued\r\n" +
+                "escaped\\=key=tab\\there\n" +
+                "UNICODE=\\u00e9\n" +
+                "SPACED   =   x\n" +
+                "DUP=1;DUP=2");
+        assertEquals("valuecontinued", mappings.get("KEY"));
+        assertEquals("tab\there", mappings.get("escaped=key"));
+        assertEquals("\u00e9", mappings.get("UNICODE"));
+        assertEquals("x", mappings.get("SPACED"));
+        assertEquals("2", mappings.get("DUP"));
+        assertEquals(5, mappings.size());
+    }
+
+    public void testMalformedUnicode() {
+        try {
+            MappingConverter.convert("A=\\u00zz");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testReturnsModifiableCopies() {
+        final Map<String, String> first = MappingConverter.convert("A=a");
+        first.put("A", "changed");
+        first.put("B", "added");
+
+        final Map<String, String> second = MappingConverter.convert("A=a");
+        assertEquals(1, second.size());
+        assertEquals("a", second.get("A"));
+    }
+
+    public void testMatchesPropertiesLoading() throws Exception {
+        final char[] alphabet = {'a', 'B', '1', ' ', '\t', '\f', '=', ':', ';', '\n', '\r', '\\', '#', '!', 't', 'n', 'u', '0', 'e'};
+        final Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            final StringBuilder mappings = new StringBuilder();
+            final int length = random.nextInt(40);
+            for (int c = 0; c < length; c++) {
+                mappings.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+
+            final Map<String, String> expected;
+            try {
+                expected = legacyConvert(mappings.toString());
+            } catch (RuntimeException e) {
+                // malformed unicode escapes, where loading Properties reads past the end of the line
+                continue;
+            }
+            assertEquals(escape(mappings.toString()), expected, MappingConverter.convert(mappings.toString()));
+        }
+    }
+
+    private static Map<String, String> legacyConvert(String mappings) throws Exception {
+        final Properties props = new Properties();
+        props.load(new StringReader(mappings.replaceAll(";", "\n")));
+        final Map<String, String> propsMap = new HashMap<String, String>();
+        for (Map.Entry<Object, Object> prop : props.entrySet()) {
+            propsMap.put(prop.getKey().toString(), prop.getValue().toString());
+        }
+        return propsMap;
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t").replace("\f", "\\f");
+    }
+}
@@ -0,0 +1,102 @@
+package com.heroku;
+
+import com.heroku.api.App;
+import com.heroku.api.User;
+import junit.framework.TestCase;
+
+/**
+ * @author Ryan Brainard
+ */
+public class MetadataCacheTest extends TestCase {
+
+    private int loads;
+
+    private MetadataCache.Loader<App> appLoader(final String appName) {
+        return new MetadataCache.Loader<App>() {
+            public App load() {
+                loads++;
+                return new App().named(appName);
+            }
+        };
+    }
+
+    public void testAppIsLoadedOncePerKeyWithinTtl() throws Exception {
+        final MetadataCache cache = new MetadataCache(100, 60000);
+        final App first = cache.getApp("KEY A", "app-a", appLoader("app-a"));
+        assertSame(first, cache.getApp("KEY A", "app-a", appLoader("app-a")));
+        assertEquals(1, loads);
+
+        cache.getApp("KEY B", "app-a", appLoader("app-a"));
+        assertEquals("other keys must not see apps looked up with this one", 2, loads);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testLookupsAreCountedForTheBuild() throws Exception {
+        final MetadataCache cache = new MetadataCache(100, 60000);
+        final MetadataCache.Lookups lookups = new MetadataCache.Lookups();
+        cache.getApp("KEY A", "app-a", appLoader("app-a"), lookups);
+        cache.getApp("KEY A", "app-a", appLoader("app-a"), lookups);
+        cache.getApp("KEY A", "app-a", appLoader("app-a"));
+
+        assertEquals(1, lookups.getHits());
+        assertEquals(1, lookups.getMisses());
+        assertEquals(2, cache.getHits());
+        assertTrue(lookups.summary(), lookups.summary().contains("1 of 2 lookups in this build were hits (50%)"));
+    }
+
+    public void testEntriesExpire() throws Exception {
+        final MetadataCache cache = new MetadataCache(100, 20);
+        cache.getApp("KEY A", "app-a", appLoader("app-a"));
+        Thread.sleep(50);
+        cache.getApp("KEY A", "app-a", appLoader("app-a"));
+        assertEquals(2, loads);
+    }
+
+    public void testZeroTtlDisablesCaching() throws Exception {
+        final MetadataCache cache = new MetadataCache(100, 0);
+        cache.getApp("KEY A", "app-a", appLoader("app-a"));
+        cache.getApp("KEY A", "app-a", appLoader("app-a"));
+        assertEquals(2, loads);
+        assertEquals(0, cache.size());
+    }
+
+    public void testInvalidateDropsAppForAllKeys() throws Exception {
+        final MetadataCache cache = new MetadataCache(100, 60000);
+        cache.getApp("KEY A", "app-a", appLoader("app-a"));
+        cache.getApp("KEY B", "app-a", appLoader("app-a"));
+        cache.getApp("KEY A", "app-b", appLoader("app-b"));
+        cache.getUserInfo("KEY A", new MetadataCache.Loader<User>() {
+            public User load() {
+                return new User();
+            }
+        });
+
+        cache.invalidateApp("app-a");
+        assertEquals(2, cache.size());
+        cache.getApp("KEY B", "app-a", appLoader("app-a"));
+        assertEquals(4, loads);
+    }
+
+    public void testPutAppIsReturnedWithoutLoading() throws Exception {
+        final MetadataCache cache = new MetadataCache(100, 60000);
+        final App created = new App().named("app-a");
+        cache.putApp("KEY A", created);
+        assertSame(created, cache.getApp("KEY A", "app-a", appLoader("app-a")));
+        assertEquals(0, loads);
+    }
+
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+        final MetadataCache cache = new MetadataCache(2, 60000);
+        cache.getApp("KEY A", "app-a", appLoader("app-a"));
+        cache.getApp("KEY A", "app-b", appLoader("app-b"));
+        cache.getApp("KEY A", "app-a", appLoader("app-a"));
+        cache.getApp("KEY A", "app-c", appLoader("app-c"));
+        assertEquals(2, cache.size());
+
+        cache.getApp("KEY A", "app-a", appLoader("app-a"));
+        assertEquals(3, loads);
+        cache.getApp("KEY A", "app-b", appLoader("app-b"));
+        assertEquals(4, loads);
+    }
+}
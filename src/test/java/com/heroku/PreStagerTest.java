@@ -0,0 +1,99 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * @author Ryan Brainard
+ */
+public class PreStagerTest extends TestCase {
+
+    private static final long POLL_MILLIS = 60 * 1000;
+
+    private File dir;
+    private File indexFile;
+    private final PrintStream logger = new PrintStream(new ByteArrayOutputStream());
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("pre-stage", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        indexFile = new File(dir.getPath() + "@tmp", "digests");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        FileUtils.deleteDirectory(indexFile.getParentFile());
+    }
+
+    public void testSettledFilesAreHashedOnce() throws Exception {
+        final File settled = write("lib/settled.jar", "settled", POLL_MILLIS * 2);
+        final PreStager stager = stager();
+
+        stager.poll();
+        assertEquals(1, stager.getFilesHashed());
+        assertEquals(settled.length(), stager.getBytesHashed());
+
+        stager.poll();
+        assertEquals("Hashed files are not hashed again", 1, stager.getFilesHashed());
+
+        final DigestIndex pushIndex = DigestIndex.load(indexFile);
+        assertEquals(DigestIndex.hex(DigestIndex.sha256(settled)), DigestIndex.hex(pushIndex.digest(settled, path("lib/settled.jar"))));
+        assertEquals("Digests are left for the push to reuse", 1, pushIndex.getReused());
+    }
+
+    public void testFilesBeingWrittenWaitUntilUnchanged() throws Exception {
+        write("target/app.jar", "partial", 0);
+        final PreStager stager = stager();
+
+        stager.poll();
+        assertEquals(0, stager.getFilesHashed());
+
+        write("target/app.jar", "complete", 0);
+        stager.poll();
+        assertEquals("Changed since last poll", 0, stager.getFilesHashed());
+
+        stager.poll();
+        assertEquals(1, stager.getFilesHashed());
+    }
+
+    public void testExcludedFilesAreNotHashed() throws Exception {
+        write(".git/objects/pack", "pack", POLL_MILLIS * 2);
+        final PreStager stager = stager();
+
+        stager.poll();
+        assertEquals(0, stager.getFilesHashed());
+        assertFalse(indexFile.exists());
+    }
+
+    public void testStartAndStopByDirectory() throws Exception {
+        write("Procfile", "web: bin/web", POLL_MILLIS * 2);
+        final PreStager stager = stager();
+
+        PreStager.start(stager);
+        assertSame(stager, PreStager.stop(new File(dir, ".")));
+        assertNull("Already stopped", PreStager.stop(dir));
+        assertTrue(stager.summary(), stager.summary().startsWith("Pre-staged "));
+    }
+
+    private PreStager stager() {
+        return new PreStager(dir, indexFile, new PruningGlobScanner("**", ".git/**"), POLL_MILLIS, logger);
+    }
+
+    private File write(String path, String content, long ageMillis) throws Exception {
+        final File f = new File(dir, path);
+        FileUtils.writeStringToFile(f, content);
+        assertTrue(f.setLastModified(System.currentTimeMillis() - ageMillis));
+        return f;
+    }
+
+    private static String path(String path) {
+        return path.replace('/', File.separatorChar);
+    }
+}
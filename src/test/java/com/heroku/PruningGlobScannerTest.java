@@ -0,0 +1,144 @@
+package com.heroku;
+
+import hudson.util.FileVisitor;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Ryan Brainard
+ */
+public class PruningGlobScannerTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("pruning-scanner", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+
+        for (String path : Arrays.asList(
+                "Procfile",
+                "pom.xml",
+                "src/main/java/App.java",
+                "src/main/resources/app.properties",
+                "src/test/java/AppTest.java",
+                "target/app.jar",
+                "target/classes/App.class",
+                "node_modules/left-pad/index.js",
+                "web/node_modules/react/index.js",
+                "web/app.js",
+                ".git/HEAD",
+                ".gitignore")) {
+            FileUtils.writeStringToFile(new File(dir, path), path);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    public void testIncludesEverythingButDefaultExcludes() throws Exception {
+        assertEquals(paths("Procfile", "node_modules/left-pad/index.js", "pom.xml",
+                "src/main/java/App.java", "src/main/resources/app.properties", "src/test/java/AppTest.java",
+                "target/app.jar", "target/classes/App.class", "web/app.js", "web/node_modules/react/index.js"),
+                scan(new PruningGlobScanner("**", "")));
+    }
+
+    public void testNullPatternsIncludeEverything() throws Exception {
+        assertTrue(scan(new PruningGlobScanner(null, null)).contains(path(".git/HEAD")));
+    }
+
+    public void testEmptyIncludesWithoutExcludesIncludeEverything() throws Exception {
+        assertEquals(scan(new PruningGlobScanner(null, null)), scan(new PruningGlobScanner("", null)));
+        assertTrue(scan(new PruningGlobScanner("", null)).contains(path(".gitignore")));
+    }
+
+    public void testDotDirectoriesAreScannedWithoutPatterns() throws Exception {
+        FileUtils.writeStringToFile(new File(dir, ".anvil/config"), "the user's own");
+
+        assertTrue(scan(new PruningGlobScanner(null, null)).contains(path(".anvil/config")));
+    }
+
+    public void testExcludedDirectoriesAreNotWalked() throws Exception {
+        final RecordingScanner scanner = new RecordingScanner("**", "target/**, **/node_modules/**");
+
+        assertEquals(paths("Procfile", "pom.xml", "src/main/java/App.java", "src/main/resources/app.properties",
+                "src/test/java/AppTest.java", "web/app.js"), scan(scanner));
+        assertFalse(scanner.listed.contains(".git"));
+        assertFalse(scanner.listed.contains("target"));
+        assertFalse(scanner.listed.contains("node_modules"));
+        assertFalse(scanner.listed.contains(path("web/node_modules")));
+    }
+
+    public void testDirectoriesOutsideIncludesAreNotWalked() throws Exception {
+        final RecordingScanner scanner = new RecordingScanner("src/main/**/*.java, Procfile", null);
+
+        assertEquals(paths("Procfile", "src/main/java/App.java"), scan(scanner));
+        assertTrue(scanner.listed.contains(path("src/main/resources")));
+        assertFalse(scanner.listed.contains(path("src/test")));
+        assertFalse(scanner.listed.contains("web"));
+    }
+
+    public void testPatternSyntax() throws Exception {
+        assertTrue(matches("**/*.java", "a/b/C.java"));
+        assertTrue(matches("**/*.java", "C.java"));
+        assertFalse(matches("*.java", "a/C.java"));
+        assertTrue(matches("a/?.txt", "a/b.txt"));
+        assertFalse(matches("a/?.txt", "a/bc.txt"));
+        assertTrue(matches("a/", "a/b/c"));
+        assertTrue(matches("a\\**\\c", "a/b/b/c"));
+        assertTrue(matches("a/**/c", "a/c"));
+        assertFalse(matches("a/**/c", "a/b/d"));
+        assertSame(PruningGlobScanner.compile("**/*.java"), PruningGlobScanner.compile("**/*.java"));
+    }
+
+    private static boolean matches(String pattern, String path) {
+        return PruningGlobScanner.compile(pattern).matches(path.split("/"));
+    }
+
+    private List<String> scan(PruningGlobScanner scanner) throws IOException {
+        final List<String> visited = new ArrayList<String>();
+        scanner.scan(dir, new FileVisitor() {
+            @Override
+            public void visit(File f, String relativePath) throws IOException {
+                assertEquals(new File(dir, relativePath), f);
+                visited.add(relativePath);
+            }
+        });
+        return visited;
+    }
+
+    private static List<String> paths(String... paths) {
+        final List<String> list = new ArrayList<String>();
+        for (String p : paths) {
+            list.add(path(p));
+        }
+        return list;
+    }
+
+    private static String path(String path) {
+        return path.replace('/', File.separatorChar);
+    }
+
+    private class RecordingScanner extends PruningGlobScanner {
+        final List<String> listed = new ArrayList<String>();
+
+        RecordingScanner(String includes, String excludes) {
+            super(includes, excludes);
+        }
+
+        @Override
+        String[] list(File d) {
+            listed.add(d.equals(dir) ? "" : d.getPath().substring(dir.getPath().length() + 1));
+            return super.list(d);
+        }
+    }
+}
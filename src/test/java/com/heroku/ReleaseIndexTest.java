@@ -0,0 +1,182 @@
+package com.heroku;
+
+import com.heroku.api.HerokuAPI;
+import com.heroku.api.Release;
+import com.heroku.api.connection.Connection;
+import com.heroku.api.exception.RequestFailedException;
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Ryan Brainard
+ */
+public class ReleaseIndexTest extends TestCase {
+
+    private final FakeReleasesApi api = new FakeReleasesApi();
+
+    public void testCurrentAndPreviousListOnlyOnce() throws Exception {
+        api.release(5);
+        final ReleaseIndex index = new ReleaseIndex(10, 3);
+
+        assertEquals("v5", index.current(api, "app").getName());
+        assertEquals("v4", index.previous(api, "app").getName());
+        assertEquals(1, api.lists);
+    }
+
+    public void testOnlyTheCurrentReleaseIsFetched() throws Exception {
+        api.release(1000);
+        final ReleaseIndex index = new ReleaseIndex(10, 3);
+        index.current(api, "app");
+
+        api.release(2);
+        api.fetched.clear();
+        assertEquals("v1002", index.current(api, "app").getName());
+        assertEquals("v1001", index.previous(api, "app").getName());
+        assertEquals(1, api.lists);
+        assertEquals("Releases in between are only fetched when asked for, and no release is probed for",
+                "[current, current, v1001]", api.fetched.toString());
+    }
+
+    public void testPreviousBeyondKeptHistoryIsFetched() throws Exception {
+        api.release(3);
+        final ReleaseIndex index = new ReleaseIndex(10, 1);
+        index.current(api, "app");
+
+        api.fetched.clear();
+        assertEquals("v2", index.previous(api, "app").getName());
+        assertEquals("[current, v2]", api.fetched.toString());
+    }
+
+    public void testNoPreviousReleaseForFirstRelease() throws Exception {
+        final ReleaseIndex index = new ReleaseIndex(10, 3);
+        assertNull(index.current(api, "app"));
+
+        api.release(1);
+        assertEquals("v1", index.current(api, "app").getName());
+        assertNull(index.previous(api, "app"));
+    }
+
+    public void testForgottenAppIsListedAgain() throws Exception {
+        api.release(3);
+        final ReleaseIndex index = new ReleaseIndex(10, 3);
+        index.current(api, "app");
+
+        index.forget(api.getApiKey(), "app");
+        api.releases.clear();
+        api.release(3);
+        assertEquals("v3", index.current(api, "app").getName());
+        assertEquals(2, api.lists);
+    }
+
+    public void testAppCreatedAgainOutsideJenkinsIsListedAgain() throws Exception {
+        api.release(5);
+        final ReleaseIndex index = new ReleaseIndex(10, 3);
+        index.current(api, "app");
+
+        api.releases.clear();
+        api.release(2);
+        assertEquals("v2", index.current(api, "app").getName());
+        assertEquals("v1", index.previous(api, "app").getName());
+        assertEquals(2, api.lists);
+    }
+
+    public void testReplacedReleaseOfTheSameVersionIsListedAgain() throws Exception {
+        api.release(3);
+        final ReleaseIndex index = new ReleaseIndex(10, 3);
+        index.current(api, "app");
+
+        api.releases.clear();
+        api.commit = "other";
+        api.release(3);
+        assertEquals("other", index.previous(api, "app").getCommit());
+        assertEquals(2, api.lists);
+    }
+
+    public void testHistoriesAreKeptByApiKey() throws Exception {
+        api.release(3);
+        final FakeReleasesApi otherAccount = new FakeReleasesApi("OTHER_KEY");
+        otherAccount.release(1);
+        final ReleaseIndex index = new ReleaseIndex(10, 3);
+
+        assertEquals("v3", index.current(api, "app").getName());
+        assertNull(index.previous(otherAccount, "app"));
+        assertEquals("v2", index.previous(api, "app").getName());
+        assertEquals(1, api.lists);
+    }
+
+    private static Release release(final String name, final String commit) {
+        return new Release() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public String getCommit() {
+                return commit;
+            }
+        };
+    }
+
+    private static Connection nullConnection() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        });
+    }
+
+    private static final class FakeReleasesApi extends HerokuAPI {
+        final List<Release> releases = new ArrayList<Release>();
+        final List<String> fetched = new ArrayList<String>();
+        private final String apiKey;
+        String commit = "abc123";
+        int lists;
+
+        FakeReleasesApi() {
+            this("KEY");
+        }
+
+        FakeReleasesApi(String apiKey) {
+            super(nullConnection(), apiKey);
+            this.apiKey = apiKey;
+        }
+
+        void release(int count) {
+            for (int i = 0; i < count; i++) {
+                releases.add(ReleaseIndexTest.release("v" + (releases.size() + 1), commit));
+            }
+        }
+
+        @Override
+        public String getApiKey() {
+            return apiKey;
+        }
+
+        @Override
+        public List<Release> listReleases(String appName) {
+            lists++;
+            return new ArrayList<Release>(releases);
+        }
+
+        @Override
+        public Release getReleaseInfo(String appName, String releaseName) {
+            fetched.add(releaseName);
+            if (releaseName.equals("current") && !releases.isEmpty()) {
+                return releases.get(releases.size() - 1);
+            }
+            for (Release release : releases) {
+                if (release.getName().equals(releaseName)) {
+                    return release;
+                }
+            }
+            throw new RequestFailedException("Release not found", HttpURLConnection.HTTP_NOT_FOUND, new byte[0]);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ryan Brainard
+ */
+public class RunBatchTest extends TestCase {
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private final PrintStream logger = new PrintStream(log);
+
+    public void testExpandLines() {
+        assertEquals(Arrays.asList("rake db:migrate", "rake cache:clear"), RunBatch.expand("rake db:migrate\r\n\n  rake cache:clear  \n"));
+    }
+
+    public void testExpandRanges() {
+        assertEquals(Arrays.asList("rake migrate SHARD=1", "rake migrate SHARD=2", "rake migrate SHARD=3"),
+                RunBatch.expand("rake migrate SHARD={1..3}"));
+        assertEquals(Arrays.asList("backfill 09", "backfill 10"), RunBatch.expand("backfill {09..10}"));
+        assertEquals(Arrays.asList("a1b2", "a1b1", "a2b2", "a2b1"), RunBatch.expand("a{1..2}b{2..1}"));
+    }
+
+    public void testExpandTooMany() {
+        try {
+            RunBatch.expand("rake migrate SHARD={1..1001}");
+            fail();
+        } catch (HerokuJenkinsHandledException e) {
+            assertEquals("More than 1000 commands to run", e.getMessage());
+        }
+        try {
+            RunBatch.expand("rake migrate SHARD={1..4000000000}");
+            fail();
+        } catch (HerokuJenkinsHandledException e) {
+            assertEquals("More than 1000 commands to run", e.getMessage());
+        }
+    }
+
+    public void testExpandTooLarge() {
+        try {
+            RunBatch.expand("backfill {1..99999999999999999999}");
+            fail();
+        } catch (HerokuJenkinsHandledException e) {
+            assertEquals("Range {1..99999999999999999999} is too large", e.getMessage());
+        }
+        assertEquals(Arrays.asList("backfill 4000000000", "backfill 4000000001"), RunBatch.expand("backfill {4000000000..4000000001}"));
+    }
+
+    public void testRunsAllUpToConcurrency() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger mostRunning = new AtomicInteger();
+        final List<RunBatch.Run> runs = new RunBatch(3, false).run(RunBatch.expand("migrate {1..10}"), new RunBatch.Command() {
+            public void run(RunBatch.Run run) throws Exception {
+                final int now = running.incrementAndGet();
+                synchronized (mostRunning) {
+                    mostRunning.set(Math.max(mostRunning.get(), now));
+                }
+                Thread.sleep(20);
+                running.decrementAndGet();
+                run.process = "run." + run.index;
+                run.exitStatus = 0;
+            }
+        }, logger);
+
+        assertEquals(10, runs.size());
+        assertEquals(3, mostRunning.get());
+        assertTrue(RunBatch.summarize(runs, logger));
+        assertTrue(log.toString(), log.toString().contains("10   migrate 10  run.10"));
+    }
+
+    public void testZeroConcurrencyUsesTheDefault() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger mostRunning = new AtomicInteger();
+        new RunBatch(0, false).run(RunBatch.expand("migrate {1..20}"), new RunBatch.Command() {
+            public void run(RunBatch.Run run) throws Exception {
+                final int now = running.incrementAndGet();
+                synchronized (mostRunning) {
+                    mostRunning.set(Math.max(mostRunning.get(), now));
+                }
+                Thread.sleep(10);
+                running.decrementAndGet();
+                run.exitStatus = 0;
+            }
+        }, logger);
+
+        assertTrue(String.valueOf(mostRunning.get()), mostRunning.get() <= RunBatch.DEFAULT_CONCURRENCY);
+    }
+
+    public void testNonZeroExitStatusFailsBatch() throws Exception {
+        final List<RunBatch.Run> runs = new RunBatch(0, false).run(RunBatch.expand("migrate {1..3}"), new RunBatch.Command() {
+            public void run(RunBatch.Run run) {
+                run.exitStatus = run.index == 2 ? 1 : 0;
+            }
+        }, logger);
+
+        assertFalse(RunBatch.summarize(runs, logger));
+        assertEquals("exit 0", runs.get(0).status());
+        assertEquals("exit 1", runs.get(1).status());
+        assertEquals("exit 0", runs.get(2).status());
+    }
+
+    public void testFailFastSkipsAndAbandons() throws Exception {
+        final CountDownLatch followed = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final List<RunBatch.Run> runs = new RunBatch(2, true).run(RunBatch.expand("slow\nfailing\nnever"), new RunBatch.Command() {
+            public void run(RunBatch.Run run) throws Exception {
+                if (run.index == 1) {
+                    run.follow(new Closeable() {
+                        public void close() throws IOException {
+                            closed.countDown();
+                        }
+                    });
+                    followed.countDown();
+                    closed.await(10, TimeUnit.SECONDS);
+                    run.exitStatus = 0;
+                } else if (run.index == 2) {
+                    followed.await(10, TimeUnit.SECONDS);
+                    run.exitStatus = 1;
+                } else {
+                    fail("Started after another command failed");
+                }
+            }
+        }, logger);
+
+        assertEquals(0, closed.getCount());
+        assertEquals("abandoned", runs.get(0).status());
+        assertEquals("exit 1", runs.get(1).status());
+        assertEquals("not run", runs.get(2).status());
+        assertFalse(RunBatch.summarize(runs, logger));
+    }
+
+    public void testErrorFailsRun() throws Exception {
+        final List<RunBatch.Run> runs = new RunBatch(1, false).run(Arrays.asList("migrate"), new RunBatch.Command() {
+            public void run(RunBatch.Run run) throws IOException {
+                throw new IOException("Connection reset");
+            }
+        }, logger);
+
+        assertEquals("error: Connection reset", runs.get(0).status());
+        assertFalse(runs.get(0).succeeded());
+    }
+
+    public void testDuration() {
+        assertEquals("1.5s", RunBatch.duration(1500));
+        assertEquals("2m 05s", RunBatch.duration(125000));
+        assertEquals("1h 01m 01s", RunBatch.duration(3661000));
+    }
+}
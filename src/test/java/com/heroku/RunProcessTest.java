@@ -2,6 +2,7 @@ package com.heroku;
 
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
+import hudson.model.Result;
 import org.apache.commons.io.FileUtils;
 
 /**
@@ -17,5 +18,38 @@ public class RunProcessTest extends BaseHerokuBuildStepTest {
 
         String logs = FileUtils.readFileToString(build.getLogFile());
         assertTrue("Should have connected to dyno and run `pwd`", logs.contains("/app"));
+        assertEquals(Result.SUCCESS, build.getResult());
+    }
+
+    public void testNonZeroExitStatusIsIgnoredByDefault() throws Exception {
+        FreeStyleProject project = createFreeStyleProject();
+        project.getBuildersList().add(new RunProcess(apiKey, appName, "exit 3"));
+
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        assertEquals(Result.SUCCESS, build.getResult());
+    }
+
+    public void testNonZeroExitStatusFailsBuildWhenChosen() throws Exception {
+        FreeStyleProject project = createFreeStyleProject();
+        project.getBuildersList().add(new RunProcess(apiKey, appName, "exit 3", false, false, false, 0, 0, false, true));
+
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        String logs = FileUtils.readFileToString(build.getLogFile());
+        assertTrue(logs, logs.contains("exited with status 3"));
+        assertEquals(Result.FAILURE, build.getResult());
+    }
+
+    public void testMultiLineCommandRunsAsOne() throws Exception {
+        FreeStyleProject project = createFreeStyleProject();
+        project.getBuildersList().add(new RunProcess(apiKey, appName, "cd /tmp\npwd # {1..2}"));
+
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        String logs = FileUtils.readFileToString(build.getLogFile());
+        assertTrue("Lines share one shell", logs.contains("/tmp"));
+        assertFalse("Ranges are left alone", logs.contains("Running 2 commands"));
+        assertEquals(Result.SUCCESS, build.getResult());
     }
 }
@@ -0,0 +1,66 @@
+package com.heroku;
+
+import com.heroku.api.exception.RequestFailedException;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.UniformInterfaceException;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * @author Ryan Brainard
+ */
+public class ServiceCallTest extends TestCase {
+
+    public void testFailuresOfTheCallAreMarked() throws Exception {
+        try {
+            new ServiceCall<Void>() {
+                Void call() throws IOException, InterruptedException {
+                    throw new IOException("Connection reset");
+                }
+            }.run();
+            fail();
+        } catch (ServiceCallException e) {
+            assertEquals("Connection reset", e.getMessage());
+            assertTrue(ServiceCallException.isCause(new IOException("remote file operation failed", e)));
+        }
+    }
+
+    public void testHandledErrorsAreNotMarked() throws Exception {
+        try {
+            new ServiceCall<Void>() {
+                Void call() {
+                    throw new HerokuJenkinsHandledException("No such app");
+                }
+            }.run();
+            fail();
+        } catch (HerokuJenkinsHandledException e) {
+            assertFalse(ServiceCallException.isCause(e));
+        }
+    }
+
+    public void testHttpClientFailuresAreMarked() throws Exception {
+        assertTrue(ServiceCall.isServiceFailure(new UniformInterfaceException("503 Service Unavailable", null, false)));
+        assertTrue(ServiceCall.isServiceFailure(new RequestFailedException("Unprocessable", 422, new byte[0])));
+        assertTrue(ServiceCall.isServiceFailure(new ClientHandlerException(new SocketTimeoutException("Read timed out"))));
+    }
+
+    public void testBugsInTheCallPassThrough() throws Exception {
+        final NullPointerException bug = new NullPointerException();
+        try {
+            new ServiceCall<Void>() {
+                Void call() {
+                    throw bug;
+                }
+            }.run();
+            fail();
+        } catch (NullPointerException e) {
+            assertSame(bug, e);
+        }
+    }
+
+    public void testFailuresAroundTheCallAreNotTheService() throws Exception {
+        assertFalse(ServiceCallException.isCause(new IOException("No such directory: /var/lib/jenkins/workspace/app")));
+    }
+}
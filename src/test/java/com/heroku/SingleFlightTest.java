@@ -0,0 +1,140 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ryan Brainard
+ */
+public class SingleFlightTest extends TestCase {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final SingleFlight.Call<String> blockingCall = new SingleFlight.Call<String>() {
+        public String call() {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return "result";
+        }
+    };
+
+    public void testConcurrentIdenticalCallsShareOneExecution() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<SingleFlight.Result<String>>> results = new ArrayList<Future<SingleFlight.Result<String>>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<SingleFlight.Result<String>>() {
+                    public SingleFlight.Result<String> call() {
+                        return singleFlight.execute("getApp(app)", blockingCall);
+                    }
+                }));
+            }
+            while (singleFlight.getShared() < 7) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            int shared = 0;
+            for (Future<SingleFlight.Result<String>> result : results) {
+                assertEquals("result", result.get(5, TimeUnit.SECONDS).value);
+                shared += result.get().shared ? 1 : 0;
+            }
+            assertEquals(1, calls.get());
+            assertEquals(7, shared);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testCompletedCallsAreNotReused() throws Exception {
+        release.countDown();
+        assertFalse(singleFlight.execute("getApp(app)", blockingCall).shared);
+        assertFalse(singleFlight.execute("getApp(app)", blockingCall).shared);
+        assertEquals(2, calls.get());
+    }
+
+    public void testDifferentKeysAreNotShared() throws Exception {
+        final Thread other = new Thread() {
+            @Override
+            public void run() {
+                singleFlight.execute("getApp(other)", blockingCall);
+            }
+        };
+        other.start();
+        while (calls.get() == 0) {
+            Thread.sleep(10);
+        }
+
+        final SingleFlight.Result<String> result = singleFlight.execute("getApp(app)", new SingleFlight.Call<String>() {
+            public String call() {
+                return "app";
+            }
+        });
+        assertEquals("app", result.value);
+        assertFalse(result.shared);
+        release.countDown();
+        other.join();
+    }
+
+    public void testFailureIsSharedByWaitingCallers() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("not found");
+        final CountDownLatch started = new CountDownLatch(1);
+        final Thread leader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    singleFlight.execute("getApp(app)", new SingleFlight.Call<String>() {
+                        public String call() {
+                            started.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                throw new IllegalStateException(e);
+                            }
+                            throw failure;
+                        }
+                    });
+                } catch (IllegalStateException expected) {
+                }
+            }
+        };
+        leader.start();
+        started.await();
+
+        final Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                while (singleFlight.getShared() == 0) {
+                    Thread.yield();
+                }
+                release.countDown();
+            }
+        };
+        releaser.start();
+
+        try {
+            singleFlight.execute("getApp(app)", blockingCall);
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(0, calls.get());
+        leader.join();
+        releaser.join();
+    }
+}
@@ -0,0 +1,105 @@
+package com.heroku;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author Ryan Brainard
+ */
+public class SpooledOutputTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("heroku-run", ".log.gz");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testCompressesAllOutputAndKeepsLastLines() throws Exception {
+        final StringBuilder all = new StringBuilder();
+        final SpooledOutput output = new SpooledOutput(file, 3);
+        for (int i = 1; i <= 1000; i++) {
+            final String line = "backfilled batch " + i + "\n";
+            all.append(line);
+            output.write(line.getBytes());
+        }
+        output.close();
+
+        assertEquals(all.toString(), uncompressed());
+        assertEquals("backfilled batch 998\nbackfilled batch 999\nbackfilled batch 1000\n", tail(output));
+        assertEquals(1000, output.getLines());
+        assertEquals(all.length(), output.getBytes());
+        assertTrue(file.length() < all.length() / 5);
+    }
+
+    public void testLinesSplitAcrossWrites() throws Exception {
+        final SpooledOutput output = new SpooledOutput(file, 2);
+        output.write("one\ntw".getBytes());
+        output.write("o\nthr".getBytes());
+        output.write("ee\nfour".getBytes());
+        output.close();
+
+        assertEquals("one\ntwo\nthree\nfour", uncompressed());
+        assertEquals("two\nthree\nfour" + System.getProperty("line.separator"), tail(output));
+        assertEquals(4, output.getLines());
+    }
+
+    public void testFewerLinesThanKept() throws Exception {
+        final SpooledOutput output = new SpooledOutput(file, 10);
+        output.write("only\n".getBytes());
+        output.close();
+
+        assertEquals("only\n", tail(output));
+    }
+
+    public void testTruncatesLongLinesInTail() throws Exception {
+        final StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < SpooledOutput.MAX_LINE_BYTES * 3; i++) {
+            longLine.append('x');
+        }
+        longLine.append('\n');
+
+        final SpooledOutput output = new SpooledOutput(file, 2);
+        output.write(longLine.toString().getBytes());
+        output.write("short\n".getBytes());
+        output.close();
+
+        assertEquals(longLine.toString() + "short\n", uncompressed());
+        final String tail = tail(output);
+        assertEquals(SpooledOutput.MAX_LINE_BYTES + "short\n".length(), tail.length());
+        assertTrue(tail.endsWith("x\nshort\n"));
+    }
+
+    private String uncompressed() throws IOException {
+        final InputStream in = new GZIPInputStream(new FileInputStream(file));
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String tail(SpooledOutput output) {
+        final ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        output.printTail(new PrintStream(tail));
+        return tail.toString();
+    }
+}